@@ -0,0 +1,119 @@
+package com.nosqlcode.redjava.benchmarks;
+
+import com.nosqlcode.redjava.Codec;
+import com.nosqlcode.redjava.Codecs;
+import com.nosqlcode.redjava.Index;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Encoding, decoding and scoring of the built in field types, no redis
+ * needed. Index.scoreStr is what a SCORE index on a string stores.
+ */
+
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class CodecBenchmark {
+
+
+    private final Codec<Integer> ints = Codecs.of(Integer.class);
+    private final Codec<Long> longs = Codecs.of(Long.class);
+    private final Codec<Double> doubles = Codecs.of(Double.class);
+    private final Codec<Boolean> booleans = Codecs.of(Boolean.class);
+    private final Codec<String> strings = Codecs.of(String.class);
+    private final Index index = new Index();
+
+    // fields, not constants, so nothing is folded away
+    private int intValue = 123456;
+    private long longValue = -9876543210L;
+    private double doubleValue = 3.14159;
+    private boolean booleanValue = true;
+    private String stringValue = "redjava benchmark";
+
+    private byte[] intBytes, longBytes, doubleBytes, booleanBytes, stringBytes;
+
+
+    @Setup
+    public void encodeAll() {
+        intBytes = ints.encode(intValue);
+        longBytes = longs.encode(longValue);
+        doubleBytes = doubles.encode(doubleValue);
+        booleanBytes = booleans.encode(booleanValue);
+        stringBytes = strings.encode(stringValue);
+    }
+
+
+    @Benchmark
+    public byte[] encodeInt() {
+        return ints.encode(intValue);
+    }
+
+    @Benchmark
+    public Integer decodeInt() {
+        return ints.decode(intBytes);
+    }
+
+    @Benchmark
+    public byte[] encodeLong() {
+        return longs.encode(longValue);
+    }
+
+    @Benchmark
+    public Long decodeLong() {
+        return longs.decode(longBytes);
+    }
+
+    @Benchmark
+    public byte[] encodeDouble() {
+        return doubles.encode(doubleValue);
+    }
+
+    @Benchmark
+    public Double decodeDouble() {
+        return doubles.decode(doubleBytes);
+    }
+
+    @Benchmark
+    public byte[] encodeBoolean() {
+        return booleans.encode(booleanValue);
+    }
+
+    @Benchmark
+    public Boolean decodeBoolean() {
+        return booleans.decode(booleanBytes);
+    }
+
+    @Benchmark
+    public byte[] encodeString() {
+        return strings.encode(stringValue);
+    }
+
+    @Benchmark
+    public String decodeString() {
+        return strings.decode(stringBytes);
+    }
+
+    @Benchmark
+    public double scoreStr() {
+        return index.scoreStr(stringValue);
+    }
+
+    @Benchmark
+    public double scoreLong() {
+        return longs.score(longValue);
+    }
+}
@@ -0,0 +1,35 @@
+package com.nosqlcode.redjava.benchmarks;
+
+import com.nosqlcode.redjava.RedLst;
+import com.nosqlcode.redjava.RedStr;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * A contact with every field indexed, the default, see IndexingBenchmark.
+ */
+
+public class Contact {
+
+
+    @RedStr
+    public String name, street, city, zip, note;
+
+    @RedLst
+    @RedStr
+    public ArrayList<String> nickNames;
+
+
+    public Contact() {
+    }
+
+    public Contact(int i) {
+        name = "name" + i;
+        street = i + " long street name";
+        city = "city" + (i % 100);
+        zip = "zip" + (i % 1000);
+        note = "free text that nobody looks up, number " + i;
+        nickNames = new ArrayList<>(Arrays.asList("nick" + i, "alias" + i));
+    }
+}
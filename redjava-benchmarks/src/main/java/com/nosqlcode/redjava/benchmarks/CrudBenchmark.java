@@ -0,0 +1,90 @@
+package com.nosqlcode.redjava.benchmarks;
+
+import com.nosqlcode.redjava.Mapper;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * Mapper.save, load and delete of one object of each shape, see Shapes.
+ * Saves always create a new object, loads cycle through objects saved
+ * beforehand and every delete removes one saved just before it, outside
+ * the measured time.
+ */
+
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class CrudBenchmark {
+
+
+    private static final int LOADED = 1000;
+
+    @Param({"flat", "nested", "list"})
+    public String shape;
+
+    private Supplier<?> factory;
+    private List<String> ids;
+    private int next;
+
+
+    @Setup(Level.Trial)
+    public void seed(Redis redis) {
+
+        factory = Shapes.factory(shape);
+        List<Object> objects = new ArrayList<>(LOADED);
+        for (int i = 0; i < LOADED; i++)
+            objects.add(Shapes.create(shape, i));
+        ids = Mapper.saveAll(objects);
+    }
+
+    // the object each delete removes, through the mapper that saved it
+    @State(Scope.Thread)
+    public static class Saved {
+
+        Mapper mapper;
+
+        @Setup(Level.Invocation)
+        public void save(CrudBenchmark benchmark) {
+            mapper = new Mapper(Shapes.create(benchmark.shape, benchmark.next++));
+            mapper.save();
+        }
+    }
+
+
+    @Benchmark
+    public String save() {
+        Mapper mapper = new Mapper(Shapes.create(shape, next++));
+        mapper.save();
+        return mapper.getId();
+    }
+
+    @Benchmark
+    public Object load() {
+        Object object = factory.get();
+        new Mapper(object).load(ids.get(next++ % LOADED));
+        return object;
+    }
+
+    @Benchmark
+    public void delete(Saved saved) {
+        saved.mapper.delete();
+    }
+}
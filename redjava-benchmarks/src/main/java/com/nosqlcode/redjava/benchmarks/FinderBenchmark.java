@@ -0,0 +1,76 @@
+package com.nosqlcode.redjava.benchmarks;
+
+import com.nosqlcode.redjava.Mapper;
+import com.nosqlcode.redjava.SearchCriteria;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Finder.find() with one to five equality qualifiers over ITEMS items.
+ * Selectivity is the share of items that match. All qualifiers match the
+ * same items, so the result size stays put while qualifiers are added and
+ * only the cost of intersecting them changes.
+ */
+
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class FinderBenchmark {
+
+
+    private static final int ITEMS = 10000;
+    private static final String[] FIELDS = {"a", "b", "c", "d", "e"};
+
+    @Param({"1", "2", "3", "4", "5"})
+    public int qualifiers;
+
+    @Param({"0.001", "0.01", "0.1"})
+    public double selectivity;
+
+    private Mapper.Finder<Item> finder;
+
+
+    @Setup(Level.Trial)
+    public void seed(Redis redis) {
+
+        int values = (int) Math.round(1 / selectivity);
+        List<Item> items = new ArrayList<>(ITEMS);
+        for (int i = 0; i < ITEMS; i++)
+            items.add(new Item("v" + i % values));
+        Mapper.saveAll(items);
+
+        SearchCriteria criteria = new SearchCriteria(Item.class);
+        for (int q = 0; q < qualifiers; q++)
+            criteria.equalTo(FIELDS[q], "v0");
+
+        finder = new Mapper.Finder<Item>(criteria) {
+            @Override
+            public Item newInstance() {
+                return new Item();
+            }
+        };
+    }
+
+
+    @Benchmark
+    public List<Item> find() {
+        return finder.find();
+    }
+}
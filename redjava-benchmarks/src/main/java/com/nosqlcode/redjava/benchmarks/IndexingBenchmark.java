@@ -0,0 +1,107 @@
+package com.nosqlcode.redjava.benchmarks;
+
+import com.nosqlcode.redjava.Mapper;
+import com.nosqlcode.redjava.Metrics;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import redis.clients.jedis.Jedis;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Saves per second of a contact with every field indexed (all) and of
+ * the same contact with only city and zip indexed (opt-in), see Contact
+ * and OptInContact.
+ *
+ * Before measuring, each trial saves SEEDED contacts and prints the
+ * commands sent per contact and, against a redis-server, the memory its
+ * indexes take per contact: how much used_memory drops when they are
+ * deleted.
+ */
+
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class IndexingBenchmark {
+
+
+    private static final int SEEDED = 10000;
+
+    @Param({"all", "opt-in"})
+    public String policy;
+
+    private int next;
+
+
+    @Setup(Level.Trial)
+    public void seed(Redis redis) {
+
+        Metrics metrics = new Metrics();
+        Mapper.setListener(metrics);
+        List<Object> contacts = new ArrayList<>(SEEDED);
+        for (next = 0; next < SEEDED; next++)
+            contacts.add(create(next));
+        Mapper.saveAll(contacts);
+        Mapper.setListener(null);
+
+        String report = String.format("%n%s: %.1f commands per contact", policy, (double) metrics.getCommands() / SEEDED);
+        Jedis jedis = redis.server();
+        if (jedis != null) {
+            try {
+                report += String.format(", %d bytes of indexes per contact", indexMemory(jedis) / SEEDED);
+            } finally {
+                jedis.disconnect();
+            }
+        }
+        System.out.println(report);
+    }
+
+    // the seeded indexes are dropped to measure them, later saves start new ones
+    private static long indexMemory(Jedis jedis) {
+
+        long before = usedMemory(jedis);
+        for (String pattern : new String[]{"index:*", "lex:*"}) {
+            Set<String> keys = jedis.keys(pattern);
+            if (!keys.isEmpty())
+                jedis.del(keys.toArray(new String[0]));
+        }
+        return before - usedMemory(jedis);
+    }
+
+    private static long usedMemory(Jedis jedis) {
+
+        for (String line : jedis.info("memory").split("\r?\n")) {
+            if (line.startsWith("used_memory:"))
+                return Long.parseLong(line.substring("used_memory:".length()).trim());
+        }
+        throw new IllegalStateException("no used_memory in INFO");
+    }
+
+    private Object create(int i) {
+        return policy.equals("all") ? new Contact(i) : new OptInContact(i);
+    }
+
+
+    @Benchmark
+    public String save() {
+        Mapper mapper = new Mapper(create(next++));
+        mapper.save();
+        return mapper.getId();
+    }
+}
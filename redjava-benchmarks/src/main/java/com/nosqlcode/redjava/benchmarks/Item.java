@@ -0,0 +1,24 @@
+package com.nosqlcode.redjava.benchmarks;
+
+import com.nosqlcode.redjava.Index;
+import com.nosqlcode.redjava.RedStr;
+
+/**
+ * Five indexed fields to query by, see FinderBenchmark.
+ */
+
+public class Item {
+
+
+    @RedStr(index = Index.Type.SET)
+    public String a, b, c, d, e;
+
+
+    public Item() {
+    }
+
+    // every field gets the same value, so any number of them matches the same items
+    public Item(String value) {
+        a = b = c = d = e = value;
+    }
+}
@@ -0,0 +1,31 @@
+package com.nosqlcode.redjava.benchmarks;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the JMH benchmarks with the usual command line options, the GC
+ * profiler is always on so every result comes with its allocation rate
+ * and bytes allocated per operation.
+ *
+ * <pre>
+ * java -jar target/benchmarks.jar                     everything
+ * java -jar target/benchmarks.jar Finder -p qualifiers=1,5
+ * java -jar target/benchmarks.jar -p redis=otherhost:6380
+ * java -jar target/benchmarks.jar Crud -p redis=local
+ * </pre>
+ */
+
+public class Main {
+
+
+    public static void main(String[] args) throws Exception {
+
+        new Runner(new OptionsBuilder()
+                .parent(new CommandLineOptions(args))
+                .addProfiler(GCProfiler.class)
+                .build()).run();
+    }
+}
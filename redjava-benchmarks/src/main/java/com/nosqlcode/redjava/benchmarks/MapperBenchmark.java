@@ -0,0 +1,48 @@
+package com.nosqlcode.redjava.benchmarks;
+
+import com.nosqlcode.redjava.Mapper;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of new Mapper(object) alone, the schema is cached after the first
+ * one so this is the members being set up. No redis needed.
+ */
+
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class MapperBenchmark {
+
+
+    @Param({"flat", "nested", "list"})
+    public String shape;
+
+    private Object object;
+
+
+    @Setup
+    public void create() {
+        object = Shapes.create(shape, 1);
+    }
+
+
+    @Benchmark
+    public Mapper construct() {
+        return new Mapper(object);
+    }
+}
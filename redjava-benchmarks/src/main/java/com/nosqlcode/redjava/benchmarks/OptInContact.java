@@ -0,0 +1,42 @@
+package com.nosqlcode.redjava.benchmarks;
+
+import com.nosqlcode.redjava.RedIndexed;
+import com.nosqlcode.redjava.RedLst;
+import com.nosqlcode.redjava.RedStr;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * Contact with only the fields it is queried by indexed, see
+ * IndexingBenchmark.
+ */
+
+@RedIndexed(false)
+public class OptInContact {
+
+
+    @RedStr
+    public String name, street, note;
+
+    @RedStr
+    @RedIndexed
+    public String city, zip;
+
+    @RedLst
+    @RedStr
+    public ArrayList<String> nickNames;
+
+
+    public OptInContact() {
+    }
+
+    public OptInContact(int i) {
+        name = "name" + i;
+        street = i + " long street name";
+        city = "city" + (i % 100);
+        zip = "zip" + (i % 1000);
+        note = "free text that nobody looks up, number " + i;
+        nickNames = new ArrayList<>(Arrays.asList("nick" + i, "alias" + i));
+    }
+}
@@ -0,0 +1,57 @@
+package com.nosqlcode.redjava.benchmarks;
+
+import com.nosqlcode.redjava.MemoryStore;
+import com.nosqlcode.redjava.Pool;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import redis.clients.jedis.Jedis;
+
+/**
+ * The redis-server the benchmarks run against, flushed before every trial.
+ * Set it with -p redis=host:port, default a local one, or -p redis=local
+ * for a fresh MemoryStore in the benchmark's own process.
+ */
+
+@State(Scope.Benchmark)
+public class Redis {
+
+
+    @Param("127.0.0.1:6379")
+    public String redis;
+
+
+    @Setup(Level.Trial)
+    public void connect() {
+
+        if (redis.equals("local")) {
+            Pool.connectLocal(new MemoryStore());
+            return;
+        }
+        Jedis jedis = server();
+        try {
+            jedis.flushAll();
+        } finally {
+            jedis.disconnect();
+        }
+        String[] address = redis.split(":");
+        Pool.connect(address[0], Integer.parseInt(address[1]));
+    }
+
+    // a connection of its own to the server, null for a local store
+    Jedis server() {
+
+        if (redis.equals("local"))
+            return null;
+        String[] address = redis.split(":");
+        return new Jedis(address[0], Integer.parseInt(address[1]));
+    }
+
+    @TearDown(Level.Trial)
+    public void release() {
+        Pool.release();
+    }
+}
@@ -0,0 +1,45 @@
+package com.nosqlcode.redjava.benchmarks;
+
+import com.nosqlcode.test.Address;
+import com.nosqlcode.test.Customer;
+
+import java.util.function.Supplier;
+
+/**
+ * The objects saved and loaded: flat has strings only, nested a referenced
+ * object and a short list, list a long list of strings.
+ */
+
+final class Shapes {
+
+
+    static final int LIST_SIZE = 1000;
+
+
+    private Shapes() {
+    }
+
+
+    static Object create(String shape, int i) {
+
+        switch (shape) {
+            case "flat":
+                return new Address("street" + i, "city" + (i % 100), "zip" + (i % 1000), "st");
+            case "nested":
+                Customer customer = new Customer("first" + i, "last" + (i % 100), "one", "two");
+                customer.address = new Address("street" + i, "city" + (i % 100), "zip" + (i % 1000), "st");
+                return customer;
+            case "list":
+                String[] names = new String[LIST_SIZE];
+                for (int n = 0; n < names.length; n++)
+                    names[n] = "name" + n;
+                return new Customer("first" + i, "last" + (i % 100), names);
+            default:
+                throw new IllegalArgumentException("unknown shape " + shape);
+        }
+    }
+
+    static Supplier<?> factory(String shape) {
+        return shape.equals("flat") ? Address::new : Customer::new;
+    }
+}
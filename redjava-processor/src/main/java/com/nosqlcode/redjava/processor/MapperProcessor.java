@@ -0,0 +1,185 @@
+package com.nosqlcode.redjava.processor;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.RoundEnvironment;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.NestingKind;
+import javax.lang.model.element.PackageElement;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.element.VariableElement;
+import javax.lang.model.type.TypeMirror;
+import javax.tools.Diagnostic;
+import javax.tools.JavaFileObject;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Generates a <code>&lt;Model&gt;RedMapper</code> next to every model class
+ * with redjava annotated fields.
+ *
+ * The generated class reads and writes the mapped fields directly, so
+ * Schema can use it in place of method handles. Classes without a
+ * generated mapper keep working through reflection.
+ */
+
+public class MapperProcessor extends AbstractProcessor {
+
+
+    private static final String PACKAGE = "com.nosqlcode.redjava.";
+
+    private static final Set<String> ANNOTATIONS = new HashSet<>(Arrays.asList(
+            PACKAGE + "RedStr", PACKAGE + "RedInt", PACKAGE + "RedBool",
+            PACKAGE + "RedObj", PACKAGE + "RedLst", PACKAGE + "RedVal"));
+
+
+    @Override
+    public Set<String> getSupportedAnnotationTypes() {
+        return ANNOTATIONS;
+    }
+
+    @Override
+    public SourceVersion getSupportedSourceVersion() {
+        return SourceVersion.latestSupported();
+    }
+
+
+    @Override
+    public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment roundEnv) {
+
+        // group the annotated fields by the model class that declares them
+        Map<TypeElement, Set<VariableElement>> models = new LinkedHashMap<>();
+
+        for (TypeElement annotation : annotations) {
+            for (Element element : roundEnv.getElementsAnnotatedWith(annotation)) {
+
+                if (element.getKind() != ElementKind.FIELD)
+                    continue;
+
+                Set<Modifier> modifiers = element.getModifiers();
+                if (!modifiers.contains(Modifier.PUBLIC) || modifiers.contains(Modifier.STATIC))
+                    continue;
+
+                TypeElement model = (TypeElement) element.getEnclosingElement();
+                Set<VariableElement> fields = models.get(model);
+                if (fields == null) {
+                    fields = new LinkedHashSet<>();
+                    models.put(model, fields);
+                }
+                fields.add((VariableElement) element);
+            }
+        }
+
+        for (Map.Entry<TypeElement, Set<VariableElement>> model : models.entrySet()) {
+
+            // nested classes are left to the reflective path
+            if (model.getKey().getNestingKind() != NestingKind.TOP_LEVEL)
+                continue;
+
+            try {
+                write(model.getKey(), model.getValue());
+            } catch (IOException e) {
+                processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR,
+                        "could not generate mapper: " + e.getMessage(), model.getKey());
+            }
+        }
+
+        // the annotations are left for other processors
+        return false;
+    }
+
+
+    private void write(TypeElement model, Set<VariableElement> fields) throws IOException {
+
+        String pkg = ((PackageElement) model.getEnclosingElement()).getQualifiedName().toString();
+        String modelName = model.getSimpleName().toString();
+        String name = modelName + "RedMapper";
+
+        Map<String, String> constants = constants(fields);
+        JavaFileObject file = processingEnv.getFiler().createSourceFile(
+                pkg.isEmpty() ? name : pkg + "." + name, model);
+
+        try (Writer out = file.openWriter()) {
+
+            if (!pkg.isEmpty())
+                out.write("package " + pkg + ";\n\n");
+
+            out.write("import com.nosqlcode.redjava.Schema;\n\n");
+            out.write("// generated by " + getClass().getName() + ", do not edit\n");
+            out.write("@SuppressWarnings(\"unchecked\")\n");
+            out.write("public final class " + name + " implements Schema.Generated {\n\n");
+
+            for (VariableElement field : fields) {
+
+                String fieldName = field.getSimpleName().toString();
+
+                out.write("    private static final Schema.Accessor " + constants.get(fieldName)
+                        + " = new Schema.Accessor() {\n");
+                out.write("        @Override\n");
+                out.write("        public Object get(Object target) {\n");
+                out.write("            return ((" + modelName + ") target)." + fieldName + ";\n");
+                out.write("        }\n");
+                out.write("        @Override\n");
+                out.write("        public void set(Object target, Object value) {\n");
+                if (field.getModifiers().contains(Modifier.FINAL))
+                    out.write("            throw new IllegalStateException(\"field is final\");\n");
+                else
+                    out.write("            ((" + modelName + ") target)." + fieldName
+                            + " = (" + cast(field.asType()) + ") value;\n");
+                out.write("        }\n");
+                out.write("    };\n\n");
+            }
+
+            out.write("    @Override\n");
+            out.write("    public Schema.Accessor accessor(String attr) {\n");
+            out.write("        switch (attr) {\n");
+            for (VariableElement field : fields) {
+                String fieldName = field.getSimpleName().toString();
+                out.write("            case \"" + fieldName + "\": return " + constants.get(fieldName) + ";\n");
+            }
+            out.write("            default: return null;\n");
+            out.write("        }\n");
+            out.write("    }\n");
+            out.write("}\n");
+        }
+    }
+
+
+    // accessor constant per field, numbered when two fields map to one name (fooBar, foo_bar)
+    private Map<String, String> constants(Set<VariableElement> fields) {
+
+        Map<String, String> constants = new LinkedHashMap<>();
+        Set<String> taken = new HashSet<>();
+        for (VariableElement field : fields) {
+            String fieldName = field.getSimpleName().toString();
+            String constant = constant(fieldName);
+            for (int i = 2; !taken.add(constant); i++) {
+                constant = constant(fieldName) + "_" + i;
+            }
+            constants.put(fieldName, constant);
+        }
+        return constants;
+    }
+
+    private String constant(String fieldName) {
+        return fieldName.replaceAll("([a-z0-9])([A-Z])", "$1_$2").toUpperCase();
+    }
+
+    // primitives are boxed on the way through the accessor, generics are erased
+    private String cast(TypeMirror type) {
+
+        if (type.getKind().isPrimitive())
+            return processingEnv.getTypeUtils().boxedClass(
+                    processingEnv.getTypeUtils().getPrimitiveType(type.getKind())).getQualifiedName().toString();
+
+        return processingEnv.getTypeUtils().erasure(type).toString();
+    }
+}
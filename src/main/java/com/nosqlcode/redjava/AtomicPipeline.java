@@ -0,0 +1,281 @@
+package com.nosqlcode.redjava;
+
+import redis.clients.jedis.BuilderFactory;
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.Pipeline;
+import redis.clients.jedis.Response;
+import redis.clients.jedis.exceptions.JedisDataException;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Pipeline that sends the writes of one object, its lists, indexes and
+ * the objects it references, as a single EVALSHA instead of one command
+ * each. Redis runs a script without interleaving other clients, so a
+ * saved or deleted object never has its hash and its indexes out of step,
+ * not even when the client dies halfway.
+ *
+ * Writes between {@link #begin()} and {@link #end()} are collected rather
+ * than sent, their responses are null. Reads and everything outside a unit
+ * go to the server unchanged. Units that fail with NOSCRIPT, after a
+ * restart or SCRIPT FLUSH, are sent again on sync, the first with EVAL.
+ */
+
+final class AtomicPipeline extends Pipeline {
+
+
+    /* one script runs every unit. ARGV is a list of commands, each the
+    command name, the KEYS index of its key, 0 for none, the number of
+    arguments and the arguments */
+    static final Script APPLY = new Script(
+            "local i = 1\n" +
+            "while i <= #ARGV do\n" +
+            "  local k, n = tonumber(ARGV[i + 1]), tonumber(ARGV[i + 2])\n" +
+            "  if k == 0 then\n" +
+            "    redis.call(ARGV[i], unpack(ARGV, i + 3, i + 2 + n))\n" +
+            "  else\n" +
+            "    redis.call(ARGV[i], KEYS[k], unpack(ARGV, i + 3, i + 2 + n))\n" +
+            "  end\n" +
+            "  i = i + 3 + n\n" +
+            "end\n");
+
+    private static final byte[] SHA = APPLY.getSha().getBytes(StandardCharsets.UTF_8);
+    private static final byte[] SOURCE = APPLY.getSource().getBytes(StandardCharsets.UTF_8);
+
+
+    private final List<Unit> sent = new ArrayList<>();
+    private Unit unit;
+    private boolean transaction;
+
+
+    AtomicPipeline(Jedis jedis) {
+        setClient(jedis.getClient());
+    }
+
+
+    // start collecting, false when a unit is already open and the caller is part of it
+    boolean begin() {
+
+        if (unit != null)
+            return false;
+        unit = new Unit();
+        return true;
+    }
+
+    // queue the collected writes as one script call
+    void end() {
+
+        Unit done = unit;
+        unit = null;
+        if (done.args.isEmpty())
+            return;
+
+        done.response = send(SHA, done, false);
+        sent.add(done);
+    }
+
+    @Override
+    public Response<String> multi() {
+        transaction = true;
+        return super.multi();
+    }
+
+    @Override
+    public void sync() {
+        super.sync();
+        retry();
+    }
+
+    // replies of the script calls, not of the writes inside them
+    @Override
+    public List<Object> syncAndReturnAll() {
+        List<Object> replies = super.syncAndReturnAll();
+        retry();
+        return replies;
+    }
+
+    private void retry() {
+
+        List<Unit> missing = new ArrayList<>();
+        for (Unit done : sent) {
+            try {
+                done.response.get();
+            } catch (JedisDataException e) {
+                if (!noScript(e))
+                    throw e;
+                missing.add(done);
+            }
+        }
+        sent.clear();
+        if (missing.isEmpty())
+            return;
+
+        // EVAL caches the script, the units after the first can use its digest again
+        if (transaction)
+            super.multi();
+        for (int i = 0; i < missing.size(); i++) {
+            Unit retry = missing.get(i);
+            retry.response = i == 0 ? send(SOURCE, retry, true) : send(SHA, retry, false);
+            sent.add(retry);
+        }
+        if (transaction)
+            super.exec();
+        transaction = false;
+        sync();
+    }
+
+
+    @Override
+    public Response<Long> hset(byte[] key, byte[] field, byte[] value) {
+        if (unit == null)
+            return super.hset(key, field, value);
+        unit.add("HSET", key(key), field, value);
+        return null;
+    }
+
+    @Override
+    public Response<Long> hdel(String key, String... fields) {
+        if (unit == null)
+            return super.hdel(key, fields);
+        unit.add("HDEL", key, bytes(fields));
+        return null;
+    }
+
+    @Override
+    public Response<Long> del(String key) {
+        if (unit == null)
+            return super.del(key);
+        unit.add("DEL", key);
+        return null;
+    }
+
+    @Override
+    public Response<Long> rpush(byte[] key, byte[]... values) {
+        if (unit == null)
+            return super.rpush(key, values);
+        unit.add("RPUSH", key(key), values);
+        return null;
+    }
+
+    @Override
+    public Response<Long> zadd(String key, double score, String member) {
+        if (unit == null)
+            return super.zadd(key, score, member);
+        unit.add("ZADD", key, bytes(String.valueOf(score)), bytes(member));
+        return null;
+    }
+
+    @Override
+    public Response<Long> zrem(String key, String... members) {
+        if (unit == null)
+            return super.zrem(key, members);
+        unit.add("ZREM", key, bytes(members));
+        return null;
+    }
+
+    @Override
+    public Response<Long> sadd(String key, String... members) {
+        if (unit == null)
+            return super.sadd(key, members);
+        unit.add("SADD", key, bytes(members));
+        return null;
+    }
+
+    @Override
+    public Response<Long> srem(String key, String... members) {
+        if (unit == null)
+            return super.srem(key, members);
+        unit.add("SREM", key, bytes(members));
+        return null;
+    }
+
+    @Override
+    public Response<Long> publish(String channel, String message) {
+        if (unit == null)
+            return super.publish(channel, message);
+        unit.add("PUBLISH", null, bytes(channel), bytes(message));
+        return null;
+    }
+
+
+    private Response<byte[]> send(byte[] script, Unit unit, boolean source) {
+
+        byte[][] params = unit.params();
+        if (source)
+            client.eval(script, unit.keys.size(), params);
+        else
+            client.evalsha(script, unit.keys.size(), params);
+        return getResponse(BuilderFactory.BYTE_ARRAY);
+    }
+
+    // pipelined replies wrap the error of the server in another exception
+    private static boolean noScript(Throwable e) {
+
+        for (; e != null; e = e.getCause()) {
+            if (e.getMessage() != null && e.getMessage().startsWith("NOSCRIPT"))
+                return true;
+        }
+        return false;
+    }
+
+    private static String key(byte[] key) {
+        return new String(key, StandardCharsets.UTF_8);
+    }
+
+    private static byte[] bytes(String value) {
+        return value.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static byte[][] bytes(String[] values) {
+        byte[][] bytes = new byte[values.length][];
+        for (int i = 0; i < values.length; i++) {
+            bytes[i] = bytes(values[i]);
+        }
+        return bytes;
+    }
+
+
+    // the writes of one object graph
+    private static final class Unit {
+
+        final Map<String, Integer> keys = new LinkedHashMap<>();
+        final List<byte[]> args = new ArrayList<>();
+        Response<byte[]> response;
+
+        void add(String command, String key, byte[]... values) {
+
+            int index = 0;
+            if (key != null) {
+                Integer known = keys.get(key);
+                index = known != null ? known : keys.size() + 1;
+                if (known == null)
+                    keys.put(key, index);
+            }
+
+            args.add(bytes(command));
+            args.add(bytes(String.valueOf(index)));
+            args.add(bytes(String.valueOf(values.length)));
+            for (byte[] value : values) {
+                args.add(value);
+            }
+        }
+
+        // KEYS then ARGV
+        byte[][] params() {
+
+            byte[][] params = new byte[keys.size() + args.size()][];
+            int i = 0;
+            for (String key : keys.keySet()) {
+                params[i++] = bytes(key);
+            }
+            for (byte[] arg : args) {
+                params[i++] = arg;
+            }
+            return params;
+        }
+    }
+}
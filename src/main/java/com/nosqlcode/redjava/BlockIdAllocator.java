@@ -0,0 +1,84 @@
+package com.nosqlcode.redjava;
+
+import redis.clients.jedis.Jedis;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Hi/lo allocator: reserves blocks of ids with INCRBY and hands them out
+ * locally, so new objects cost one round trip per block instead of one
+ * per object.
+ *
+ * Blocks come from the same counters SequentialIdAllocator uses, so ids
+ * stay unique across JVMs and both allocators can be mixed. Ids left in a
+ * block when the JVM stops are never used.
+ */
+
+public class BlockIdAllocator implements IdAllocator {
+
+
+    private final int blockSize;
+    private final ConcurrentHashMap<String, Block> blocks = new ConcurrentHashMap<>();
+
+
+    public BlockIdAllocator(int blockSize) {
+
+        if (blockSize < 1)
+            throw new IllegalArgumentException("block size must be positive");
+        this.blockSize = blockSize;
+    }
+
+
+    @Override
+    public Map<String, long[]> allocate(Jedis jedis, Map<String, Integer> counts) {
+
+        Map<String, long[]> ids = new HashMap<>();
+        for (Map.Entry<String, Integer> counter : counts.entrySet()) {
+            ids.put(counter.getKey(), block(counter.getKey()).take(jedis, counter.getValue()));
+        }
+        return ids;
+    }
+
+    private Block block(String counter) {
+
+        Block block = blocks.get(counter);
+        if (block == null) {
+            block = new Block(counter);
+            Block raced = blocks.putIfAbsent(counter, block);
+            if (raced != null)
+                block = raced;
+        }
+        return block;
+    }
+
+
+    // ids in (next - 1, last] are reserved for this JVM and not handed out yet
+    private class Block {
+
+        private final String counter;
+        private long next = 1;
+        private long last = 0;
+
+        Block(String counter) {
+            this.counter = counter;
+        }
+
+        synchronized long[] take(Jedis jedis, int count) {
+
+            long[] range = new long[count];
+            for (int i = 0; i < count; i++) {
+
+                if (next > last) {
+                    // reserve at least what is still missing in one round trip
+                    long size = Math.max(blockSize, count - i);
+                    last = jedis.incrBy(counter, size);
+                    next = last - size + 1;
+                }
+                range[i] = next++;
+            }
+            return range;
+        }
+    }
+}
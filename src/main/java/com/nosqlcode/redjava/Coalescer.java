@@ -0,0 +1,119 @@
+package com.nosqlcode.redjava;
+
+import redis.clients.jedis.Jedis;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+/**
+ * Runs the asynchronous operations of one kind. Requests that queue up
+ * while earlier ones are being sent are drained together, each batch on
+ * one pooled connection in shared pipelines, so many concurrent callers
+ * need only a few connections and round trips.
+ */
+
+final class Coalescer<R extends Coalescer.Request<?>> {
+
+
+    // one queued call and the future it completes
+    abstract static class Request<V> {
+
+        final CompletableFuture<V> future = new CompletableFuture<>();
+    }
+
+    interface Batch<R> {
+        // complete the future of every request, a thrown exception fails the ones still open
+        void run(Jedis jedis, List<R> requests);
+    }
+
+
+    // batches sent at the same time, each holds one connection
+    private static final int MAX_DRAINS = 4;
+
+    private final Batch<R> batch;
+    // batches only read and may go to a replica
+    private final boolean reads;
+    private final ConcurrentLinkedQueue<R> queue = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger drains = new AtomicInteger();
+
+
+    Coalescer(boolean reads, Batch<R> batch) {
+        this.reads = reads;
+        this.batch = batch;
+    }
+
+
+    <V> CompletableFuture<V> submit(R request, Executor executor, boolean coalesce) {
+
+        if (!coalesce) {
+            executor.execute(() -> send(Collections.singletonList(request)));
+        } else {
+            queue.add(request);
+            if (acquire())
+                executor.execute(this::drain);
+        }
+
+        @SuppressWarnings("unchecked")
+        CompletableFuture<V> future = (CompletableFuture<V>) request.future;
+        return future;
+    }
+
+
+    private boolean acquire() {
+
+        int running = drains.get();
+        while (running < MAX_DRAINS) {
+            if (drains.compareAndSet(running, running + 1))
+                return true;
+            running = drains.get();
+        }
+        return false;
+    }
+
+    private void drain() {
+
+        do {
+            List<R> requests;
+            while (!(requests = take()).isEmpty()) {
+                send(requests);
+            }
+            drains.decrementAndGet();
+
+            // a request queued after the last take but before the decrement saw no free drain
+        } while (!queue.isEmpty() && acquire());
+    }
+
+    private List<R> take() {
+
+        List<R> requests = new ArrayList<>();
+        R request;
+        while (requests.size() < Mapper.DEFAULT_BATCH_SIZE && (request = queue.poll()) != null) {
+            requests.add(request);
+        }
+        return requests;
+    }
+
+    private void send(List<R> requests) {
+
+        try {
+            Function<Jedis, Object> run = jedis -> {
+                batch.run(jedis, requests);
+                return null;
+            };
+            if (reads)
+                Mapper.withReadJedis(run);
+            else
+                Mapper.withJedis(run);
+        } catch (RuntimeException e) {
+            for (R request : requests) {
+                request.future.completeExceptionally(e);
+            }
+        }
+    }
+}
@@ -0,0 +1,22 @@
+package com.nosqlcode.redjava;
+
+/**
+ * Converts one field type to and from the bytes stored in redis.
+ *
+ * A codec also supplies the score used when the field has a SCORE index,
+ * so values that should be found by range need a score that keeps their
+ * order. Implementations must be stateless or thread safe, one instance
+ * serves every mapper.
+ *
+ * @see Codecs
+ */
+
+public interface Codec<T> {
+
+    byte[] encode(T value);
+
+    T decode(byte[] bytes);
+
+    // position of the value in a SCORE index
+    double score(T value);
+}
@@ -0,0 +1,412 @@
+package com.nosqlcode.redjava;
+
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.Pipeline;
+import redis.clients.jedis.Response;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Registry of the codecs used for mapped fields, looked up by field type.
+ *
+ * Built in:
+ * <ul>
+ *   <li>int, long - zigzag varint, 1 byte for -64..63</li>
+ *   <li>boolean - a single 0 or 1 byte</li>
+ *   <li>double - 8 bytes IEEE 754, big endian</li>
+ *   <li>String - UTF-8</li>
+ *   <li>enum - the constant name in UTF-8, scored by ordinal</li>
+ *   <li>Instant - varint epoch seconds, then varint nanos if there are any</li>
+ *   <li>byte[] - stored as is, not orderable</li>
+ * </ul>
+ *
+ * Schemas resolve their codecs once per class, so custom codecs have to be
+ * registered before a class using them is first mapped.
+ *
+ * Ints and longs written as decimal text by older versions are not
+ * varints. A value of two or more digits fails to decode, but a single
+ * digit is also a valid one byte varint and reads as a wrong number
+ * ("7" as -28). Convert such fields once with migrateDecimal before
+ * anything new is saved to them.
+ */
+
+public final class Codecs {
+
+
+    private static final ConcurrentHashMap<Class<?>, Codec<?>> codecs = new ConcurrentHashMap<>();
+
+    // ids per round trip when converting stored values
+    private static final int MIGRATE_BATCH = 1000;
+
+    static {
+        register(Integer.class, new IntCodec());
+        register(Long.class, new LongCodec());
+        register(Boolean.class, new BooleanCodec());
+        register(Double.class, new DoubleCodec());
+        register(String.class, new StringCodec());
+        register(Instant.class, new InstantCodec());
+        register(byte[].class, new BytesCodec());
+    }
+
+
+    private Codecs() {
+    }
+
+
+    public static <T> void register(Class<T> type, Codec<T> codec) {
+        codecs.put(type, codec);
+    }
+
+    // codec for a field type, primitives share the codec of their box
+    @SuppressWarnings("unchecked")
+    public static <T> Codec<T> of(Class<T> type) {
+
+        Class<?> boxed = box(type);
+        Codec<?> codec = codecs.get(boxed);
+
+        if (codec == null && boxed.isEnum()) {
+            codec = new EnumCodec(boxed);
+            Codec<?> raced = codecs.putIfAbsent(boxed, codec);
+            if (raced != null)
+                codec = raced;
+        }
+
+        if (codec == null)
+            throw new IllegalArgumentException("no codec registered for " + type.getName());
+        return (Codec<T>) codec;
+    }
+
+
+    /* rewrite the decimal text values of an int or long field as varints,
+    for the ids in its score index. values that are already varints of two
+    or more bytes are left alone, single digits are taken as decimal, so
+    run it once before the field is saved with this version */
+    public static int migrateDecimal(Class<?> model, String attr) {
+
+        Schema.Property property = Schema.of(model).getProperty(attr);
+        Codec<?> codec = property == null ? null : property.codec;
+        if (property == null || property.kind != Schema.Kind.PRIMITIVE
+                || !(codec instanceof IntCodec || codec instanceof LongCodec))
+            throw new IllegalArgumentException("no int or long field " + attr);
+        if (!property.indexed || property.index != Index.Type.SCORE)
+            throw new IllegalArgumentException("no score index to find the ids of " + attr + " by");
+
+        int migrated = 0;
+        Jedis jedis = Pool.getJedis();
+        try {
+            for (Jedis node : ShardedConnection.nodes(jedis)) {
+                migrated += migrateDecimal(node, property, codec instanceof IntCodec);
+            }
+        } finally {
+            Pool.returnJedis(jedis);
+        }
+        return migrated;
+    }
+
+    // one node's objects, its score index holds the ids of its own objects only
+    private static int migrateDecimal(Jedis node, Schema.Property property, boolean ints) {
+
+        int migrated = 0;
+        for (long start = 0; ; start += MIGRATE_BATCH) {
+
+            Set<String> ids = node.zrange(property.indexKey, start, start + MIGRATE_BATCH - 1);
+            if (ids.isEmpty())
+                break;
+
+            Pipeline pipe = node.pipelined();
+            Map<String, Response<byte[]>> values = new LinkedHashMap<>();
+            for (String id : ids) {
+                values.put(id, pipe.hget(id.getBytes(), property.attrBytes));
+            }
+            pipe.sync();
+
+            pipe = node.pipelined();
+            for (Map.Entry<String, Response<byte[]>> value : values.entrySet()) {
+                byte[] raw = value.getValue().get();
+                if (!decimal(raw))
+                    continue;
+                long number = Long.parseLong(new String(raw, StandardCharsets.US_ASCII));
+                Object decoded = ints ? (Object) Math.toIntExact(number) : number;
+                pipe.hset(value.getKey().getBytes(), property.attrBytes, property.codec.encode(decoded));
+                migrated++;
+            }
+            pipe.sync();
+        }
+        return migrated;
+    }
+
+    // -?[0-9]+, which no varint of two or more bytes can be
+    private static boolean decimal(byte[] raw) {
+
+        if (raw == null || raw.length == 0 || raw.length > 20)
+            return false;
+        for (int i = 0; i < raw.length; i++) {
+            if ((raw[i] < '0' || raw[i] > '9') && (i > 0 || raw[i] != '-' || raw.length == 1))
+                return false;
+        }
+        return true;
+    }
+
+
+    private static Class<?> box(Class<?> type) {
+
+        if (!type.isPrimitive())
+            return type;
+        if (type == int.class)
+            return Integer.class;
+        if (type == long.class)
+            return Long.class;
+        if (type == boolean.class)
+            return Boolean.class;
+        if (type == double.class)
+            return Double.class;
+        return type;
+    }
+
+
+    static final class IntCodec implements Codec<Integer> {
+
+        @Override
+        public byte[] encode(Integer value) {
+            return varint(zigzag(value));
+        }
+
+        @Override
+        public Integer decode(byte[] bytes) {
+            return (int) unzigzag(readWhole(bytes));
+        }
+
+        @Override
+        public double score(Integer value) {
+            return value;
+        }
+    }
+
+    static final class LongCodec implements Codec<Long> {
+
+        @Override
+        public byte[] encode(Long value) {
+            return varint(zigzag(value));
+        }
+
+        @Override
+        public Long decode(byte[] bytes) {
+            return unzigzag(readWhole(bytes));
+        }
+
+        // exact up to 2^53
+        @Override
+        public double score(Long value) {
+            return value;
+        }
+    }
+
+    static final class BooleanCodec implements Codec<Boolean> {
+
+        private static final byte[] TRUE = {1};
+        private static final byte[] FALSE = {0};
+
+        @Override
+        public byte[] encode(Boolean value) {
+            // shared arrays, jedis only reads them
+            return value ? TRUE : FALSE;
+        }
+
+        @Override
+        public Boolean decode(byte[] bytes) {
+            return bytes.length > 0 && bytes[0] != 0;
+        }
+
+        @Override
+        public double score(Boolean value) {
+            return value ? 1 : 0;
+        }
+    }
+
+    static final class DoubleCodec implements Codec<Double> {
+
+        @Override
+        public byte[] encode(Double value) {
+            long bits = Double.doubleToLongBits(value);
+            byte[] bytes = new byte[8];
+            for (int i = 7; i >= 0; i--) {
+                bytes[i] = (byte) bits;
+                bits >>>= 8;
+            }
+            return bytes;
+        }
+
+        @Override
+        public Double decode(byte[] bytes) {
+            long bits = 0;
+            for (int i = 0; i < 8; i++) {
+                bits = (bits << 8) | (bytes[i] & 0xff);
+            }
+            return Double.longBitsToDouble(bits);
+        }
+
+        @Override
+        public double score(Double value) {
+            return value;
+        }
+    }
+
+    static final class StringCodec implements Codec<String> {
+
+        private final Index index = new Index();
+
+        @Override
+        public byte[] encode(String value) {
+            return value.getBytes(StandardCharsets.UTF_8);
+        }
+
+        @Override
+        public String decode(byte[] bytes) {
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+
+        @Override
+        public double score(String value) {
+            return index.scoreStr(value);
+        }
+    }
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    static final class EnumCodec implements Codec<Enum> {
+
+        private final Class<? extends Enum> type;
+
+        EnumCodec(Class<?> type) {
+            this.type = (Class<? extends Enum>) type;
+        }
+
+        // by name, reordering the constants does not corrupt stored values
+        @Override
+        public byte[] encode(Enum value) {
+            return value.name().getBytes(StandardCharsets.UTF_8);
+        }
+
+        @Override
+        public Enum decode(byte[] bytes) {
+            return Enum.valueOf(type, new String(bytes, StandardCharsets.UTF_8));
+        }
+
+        @Override
+        public double score(Enum value) {
+            return value.ordinal();
+        }
+    }
+
+    static final class InstantCodec implements Codec<Instant> {
+
+        @Override
+        public byte[] encode(Instant value) {
+
+            long seconds = zigzag(value.getEpochSecond());
+            int nanos = value.getNano();
+
+            byte[] bytes = new byte[varintSize(seconds) + (nanos == 0 ? 0 : varintSize(nanos))];
+            int pos = writeVarint(bytes, 0, seconds);
+            if (nanos != 0)
+                writeVarint(bytes, pos, nanos);
+            return bytes;
+        }
+
+        @Override
+        public Instant decode(byte[] bytes) {
+
+            long seconds = readVarint(bytes, 0);
+            int pos = varintSize(seconds);
+            long nanos = pos < bytes.length ? readVarint(bytes, pos) : 0;
+            return Instant.ofEpochSecond(unzigzag(seconds), nanos);
+        }
+
+        // epoch millis, sub millisecond differences share a score
+        @Override
+        public double score(Instant value) {
+            return value.toEpochMilli();
+        }
+    }
+
+    static final class BytesCodec implements Codec<byte[]> {
+
+        @Override
+        public byte[] encode(byte[] value) {
+            return value;
+        }
+
+        @Override
+        public byte[] decode(byte[] bytes) {
+            return bytes;
+        }
+
+        // raw bytes have no order, every value scores the same
+        @Override
+        public double score(byte[] value) {
+            return 0;
+        }
+    }
+
+
+    /* variable length integers, 7 bits per byte with the high bit set on
+    every byte but the last. zigzag maps small negative numbers to small
+    positive ones first, so -1 takes one byte instead of ten */
+
+    static long zigzag(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    static long unzigzag(long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    static int varintSize(long value) {
+        int size = 1;
+        while ((value & ~0x7fL) != 0) {
+            value >>>= 7;
+            size++;
+        }
+        return size;
+    }
+
+    static byte[] varint(long value) {
+        byte[] bytes = new byte[varintSize(value)];
+        writeVarint(bytes, 0, value);
+        return bytes;
+    }
+
+    // returns the position after the written value
+    static int writeVarint(byte[] bytes, int pos, long value) {
+        while ((value & ~0x7fL) != 0) {
+            bytes[pos++] = (byte) ((value & 0x7f) | 0x80);
+            value >>>= 7;
+        }
+        bytes[pos++] = (byte) value;
+        return pos;
+    }
+
+    // a value that is one varint and nothing else, decimal text is refused
+    static long readWhole(byte[] bytes) {
+        long value = readVarint(bytes, 0);
+        if (varintSize(value) != bytes.length)
+            throw new IllegalArgumentException("not a varint: " + new String(bytes, StandardCharsets.ISO_8859_1)
+                    + ", see Codecs.migrateDecimal");
+        return value;
+    }
+
+    static long readVarint(byte[] bytes, int pos) {
+        long value = 0;
+        for (int shift = 0; pos < bytes.length; shift += 7) {
+            byte b = bytes[pos++];
+            value |= (long) (b & 0x7f) << shift;
+            if ((b & 0x80) == 0)
+                return value;
+        }
+        throw new IllegalArgumentException("truncated varint");
+    }
+}
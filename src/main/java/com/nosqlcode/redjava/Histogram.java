@@ -0,0 +1,130 @@
+package com.nosqlcode.redjava;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock free latency histogram in the manner of HdrHistogram: every power
+ * of two nanoseconds is split into eight linear sub-buckets. Recording is
+ * a few atomic increments and never allocates; percentiles are accurate to
+ * within 12.5%, values below 8 ns exactly.
+ */
+
+public class Histogram implements HistogramMBean {
+
+
+    // sub-buckets per power of two, as a number of bits
+    private static final int SUB_BITS = 3;
+    private static final int SUB = 1 << SUB_BITS;
+    private static final int BUCKETS = (64 - SUB_BITS + 1) * SUB;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong total = new AtomicLong();
+    private final AtomicLong max = new AtomicLong();
+
+
+    public void record(long nanos) {
+
+        if (nanos < 0)
+            nanos = 0;
+
+        counts.incrementAndGet(bucket(nanos));
+        count.incrementAndGet();
+        total.addAndGet(nanos);
+
+        long current = max.get();
+        while (nanos > current && !max.compareAndSet(current, nanos)) {
+            current = max.get();
+        }
+    }
+
+
+    @Override
+    public long getCount() {
+        return count.get();
+    }
+
+    @Override
+    public long getMaxNanos() {
+        return max.get();
+    }
+
+    @Override
+    public double getMeanNanos() {
+        long n = count.get();
+        return n == 0 ? 0 : (double) total.get() / n;
+    }
+
+    @Override
+    public long getP50Nanos() {
+        return getPercentileNanos(50);
+    }
+
+    @Override
+    public long getP99Nanos() {
+        return getPercentileNanos(99);
+    }
+
+    @Override
+    public long getP999Nanos() {
+        return getPercentileNanos(99.9);
+    }
+
+    // upper bound of the bucket holding the given percentile, 0 < percentile <= 100
+    public long getPercentileNanos(double percentile) {
+
+        long n = count.get();
+        if (n == 0)
+            return 0;
+
+        long rank = (long) Math.ceil(n * percentile / 100);
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += counts.get(i);
+            if (seen >= rank)
+                return Math.min(upperBound(i), max.get());
+        }
+        return max.get();
+    }
+
+    @Override
+    public void reset() {
+        for (int i = 0; i < BUCKETS; i++) {
+            counts.set(i, 0);
+        }
+        count.set(0);
+        total.set(0);
+        max.set(0);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("count %d, mean %.1f us, p50 %.1f us, p99 %.1f us, max %.1f us",
+                getCount(), getMeanNanos() / 1000, getPercentileNanos(50) / 1000.0,
+                getPercentileNanos(99) / 1000.0, getMaxNanos() / 1000.0);
+    }
+
+
+    /* values below SUB have a bucket each. above, bucket (m - SUB_BITS + 1) * SUB + s
+    holds 2^m + s * 2^(m - SUB_BITS) up to the next sub-bucket */
+    private static int bucket(long nanos) {
+
+        if (nanos < SUB)
+            return (int) nanos;
+        int magnitude = 63 - Long.numberOfLeadingZeros(nanos);
+        int sub = (int) (nanos >>> (magnitude - SUB_BITS)) & (SUB - 1);
+        return (magnitude - SUB_BITS + 1) * SUB + sub;
+    }
+
+    private static long upperBound(int bucket) {
+
+        if (bucket < SUB)
+            return bucket;
+        int magnitude = bucket / SUB + SUB_BITS - 1;
+        if (magnitude >= 62)
+            return Long.MAX_VALUE;
+        long width = 1L << (magnitude - SUB_BITS);
+        return (SUB + bucket % SUB) * width + width - 1;
+    }
+}
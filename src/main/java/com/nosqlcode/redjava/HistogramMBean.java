@@ -0,0 +1,22 @@
+package com.nosqlcode.redjava;
+
+/**
+ * JMX view of a Histogram, see Metrics.registerMBeans.
+ */
+
+public interface HistogramMBean {
+
+    long getCount();
+
+    long getMaxNanos();
+
+    double getMeanNanos();
+
+    long getP50Nanos();
+
+    long getP99Nanos();
+
+    long getP999Nanos();
+
+    void reset();
+}
@@ -0,0 +1,29 @@
+package com.nosqlcode.redjava;
+
+import redis.clients.jedis.Jedis;
+
+import java.util.Map;
+
+/**
+ * Strategy for handing out the numeric part of new object and list ids.
+ *
+ * Ids only have to be unique per counter; gaps are allowed, so a strategy
+ * may reserve ids ahead of time and drop the unused ones on shutdown.
+ * Implementations must be safe to share between threads.
+ *
+ * @see SequentialIdAllocator
+ * @see BlockIdAllocator
+ * @see TimeIdAllocator
+ */
+
+public interface IdAllocator {
+
+    /**
+     * Reserve ids for several counters at once.
+     *
+     * @param jedis connection of the calling mapper, no pipeline is open on it
+     * @param counts number of ids wanted per counter key
+     * @return per counter key, exactly the requested number of unique ids
+     */
+    Map<String, long[]> allocate(Jedis jedis, Map<String, Integer> counts);
+}
@@ -6,10 +6,38 @@ package com.nosqlcode.redjava;
  * Date: 8/13/13
  */
 
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.Pipeline;
+import redis.clients.jedis.Response;
+
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
 
 public class Index {
 
 
+    /* how a field is indexed:
+    SCORE - one sorted set per field scored with scoreStr or the number itself
+    LEX   - one zero score sorted set per field with "value\0id" members,
+            exact, prefix and range lookups with ZRANGEBYLEX, no collisions
+    SET   - one set of ids per distinct value (index:Type:attr:value),
+            equality only, answered with SSCAN / SISMEMBER */
+    public enum Type { SCORE, LEX, SET }
+
+
+    // ids per round trip when rebuilding an index
+    private static final int MIGRATE_BATCH = 1000;
+
+    // hash of the composite index keys that hold every object, see buildComposites
+    static final String BUILT_COMPOSITES = "composite:built";
+
+
     public double scoreStr(String str) {
 
         double score = 0;
@@ -65,4 +93,209 @@ public class Index {
         return score;
     }
 
+
+
+    /* rebuild the index of a field in the type it is declared with now, from
+    the ids in its old score index (index:Type:attr), which is dropped afterwards.
+    run once after switching a field to Index.Type.LEX or Index.Type.SET */
+    public static int migrate(Class<?> model, String attr) {
+
+        Schema.Property property = Schema.of(model).getProperty(attr);
+        if (property == null || property.kind != Schema.Kind.PRIMITIVE)
+            throw new IllegalArgumentException("no index for " + attr);
+
+        if (property.index == Type.SCORE)
+            return 0;
+        String legacyKey = "index:" + Schema.of(model).getType() + ":" + attr;
+
+        int migrated = 0;
+        Jedis jedis = Pool.getJedis();
+        try {
+            for (Jedis node : ShardedConnection.nodes(jedis)) {
+                migrated += migrate(node, property, legacyKey);
+            }
+        } finally {
+            Pool.returnJedis(jedis);
+        }
+        return migrated;
+    }
+
+    // one node's objects, its legacy index holds the ids of its own objects only
+    private static int migrate(Jedis node, Schema.Property property, String legacyKey) {
+
+        int migrated = 0;
+        for (long start = 0; ; start += MIGRATE_BATCH) {
+
+            Set<String> ids = node.zrange(legacyKey, start, start + MIGRATE_BATCH - 1);
+            if (ids.isEmpty())
+                break;
+
+            Pipeline pipe = node.pipelined();
+            Map<String, Response<byte[]>> values = new LinkedHashMap<>();
+            for (String id : ids) {
+                values.put(id, pipe.hget(id.getBytes(), property.attrBytes));
+            }
+            pipe.sync();
+
+            pipe = node.pipelined();
+            for (Map.Entry<String, Response<byte[]>> value : values.entrySet()) {
+                byte[] raw = value.getValue().get();
+                if (raw == null)
+                    continue;
+                String decoded = value(property.codec.decode(raw));
+                if (property.index == Type.LEX)
+                    pipe.zadd(property.indexKey, 0, lexMember(decoded, value.getKey()));
+                else
+                    pipe.sadd(setKey(property.indexKey, decoded), value.getKey());
+                migrated++;
+            }
+            pipe.sync();
+        }
+        node.del(legacyKey);
+        return migrated;
+    }
+
+
+    /* add every object of the model to its composite indexes, from the ids
+    in the score or lexicographic index of one field of each, and mark them
+    built. saves keep a built index whole from then on, finders use none
+    that is not built. run once per store after declaring a composite index,
+    an empty store too, while the model is not being saved */
+    public static int buildComposites(Class<?> model) {
+
+        Schema schema = Schema.of(model);
+        if (schema.getComposites().isEmpty())
+            return 0;
+
+        List<Schema.Property> sources = new ArrayList<>();
+        for (Schema.Composite composite : schema.getComposites()) {
+            sources.add(source(composite));
+        }
+
+        int built = 0;
+        Jedis jedis = Pool.getJedis();
+        try {
+            for (Jedis node : ShardedConnection.nodes(jedis)) {
+                for (int i = 0; i < sources.size(); i++) {
+                    built += build(node, schema.getComposites().get(i), sources.get(i));
+                }
+            }
+
+            Pipeline pipe = jedis.pipelined();
+            for (Schema.Composite composite : schema.getComposites()) {
+                pipe.hset(BUILT_COMPOSITES.getBytes(), composite.indexKey.getBytes(), "1".getBytes());
+            }
+            pipe.sync();
+        } finally {
+            Pool.returnJedis(jedis);
+        }
+        return built;
+    }
+
+    // a field of the composite whose index lists the ids, sets cannot be walked
+    private static Schema.Property source(Schema.Composite composite) {
+        for (Schema.Property property : composite.properties) {
+            if (property.indexed && property.index != Type.SET)
+                return property;
+        }
+        throw new IllegalArgumentException("no score or lexicographic index to find the ids of "
+                + composite.indexKey + " by");
+    }
+
+    // one node's objects, its index entries are of its own objects only
+    private static int build(Jedis node, Schema.Composite composite, Schema.Property source) {
+
+        int built = 0;
+        for (long start = 0; ; start += MIGRATE_BATCH) {
+
+            Set<String> members = node.zrange(source.indexKey, start, start + MIGRATE_BATCH - 1);
+            if (members.isEmpty())
+                break;
+
+            List<String> ids = new ArrayList<>(members.size());
+            for (String member : members) {
+                ids.add(source.index == Type.LEX ? member.substring(member.lastIndexOf('\0') + 1) : member);
+            }
+
+            Pipeline pipe = node.pipelined();
+            Map<String, List<Response<byte[]>>> values = new LinkedHashMap<>();
+            for (String id : ids) {
+                List<Response<byte[]>> fields = new ArrayList<>(composite.properties.size());
+                for (Schema.Property property : composite.properties) {
+                    fields.add(pipe.hget(id.getBytes(), property.attrBytes));
+                }
+                values.put(id, fields);
+            }
+            pipe.sync();
+
+            pipe = node.pipelined();
+            for (Map.Entry<String, List<Response<byte[]>>> value : values.entrySet()) {
+                List<String> decoded = new ArrayList<>(composite.properties.size());
+                for (int i = 0; i < composite.properties.size(); i++) {
+                    byte[] raw = value.getValue().get(i).get();
+                    if (raw == null)
+                        break;
+                    decoded.add(value(composite.properties.get(i).codec.decode(raw)));
+                }
+                // an object with an empty field has no entry
+                if (decoded.size() < composite.properties.size())
+                    continue;
+                pipe.zadd(composite.indexKey, 0, compositePrefix(decoded) + value.getKey());
+                built++;
+            }
+            pipe.sync();
+        }
+        return built;
+    }
+
+    // the composite index keys of the model that are built, see buildComposites
+    static Set<String> builtComposites(Jedis jedis, Schema schema) {
+
+        Set<String> built = new HashSet<>();
+        if (schema.getComposites().isEmpty())
+            return built;
+
+        Pipeline pipe = jedis.pipelined();
+        Map<String, Response<String>> marks = new LinkedHashMap<>();
+        for (Schema.Composite composite : schema.getComposites()) {
+            marks.put(composite.indexKey, pipe.hget(BUILT_COMPOSITES, composite.indexKey));
+        }
+        pipe.sync();
+        for (Map.Entry<String, Response<String>> mark : marks.entrySet()) {
+            if (mark.getValue().get() != null)
+                built.add(mark.getKey());
+        }
+        return built;
+    }
+
+
+    // string form of a value as it appears in lexicographic members and set keys
+    static String value(Object value) {
+        if (value instanceof byte[])
+            return Base64.getEncoder().encodeToString((byte[]) value);
+        if (value instanceof Enum)
+            return ((Enum<?>) value).name();
+        return String.valueOf(value);
+    }
+
+    // set of the ids whose field has this value
+    static String setKey(String indexKey, String value) {
+        return indexKey + ":" + value;
+    }
+
+    // members of a lexicographic index sort by value first and end in the id
+    static String lexMember(String value, String id) {
+        return value + "\0" + id;
+    }
+
+    /* members of a composite index are the values of its fields, each
+    followed by \0, then the id. the values alone select every object with
+    them by prefix */
+    static String compositePrefix(List<String> values) {
+        StringBuilder prefix = new StringBuilder();
+        for (String value : values) {
+            prefix.append(value).append('\0');
+        }
+        return prefix.toString();
+    }
 }
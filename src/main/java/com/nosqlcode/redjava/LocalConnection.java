@@ -0,0 +1,84 @@
+package com.nosqlcode.redjava;
+
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.Pipeline;
+import redis.clients.jedis.exceptions.JedisDataException;
+
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * What Pool.getJedis returns after Pool.connectLocal: a connection that
+ * never opens a socket and runs every command against a Store instead.
+ *
+ * It keeps no state of its own, one instance is shared by every caller.
+ * Pipelines queue commands until sync, see LocalPipeline. Scripts run
+ * their Java version, Lua is not available.
+ */
+
+final class LocalConnection extends Jedis {
+
+
+    final Store store;
+
+    // held while a MULTI/EXEC block runs
+    private final Object transactions = new Object();
+
+
+    LocalConnection(Store store) {
+        super("localhost");
+        this.store = store;
+    }
+
+
+    @Override
+    public Pipeline pipelined() {
+        return new LocalPipeline(store, transactions);
+    }
+
+    @Override
+    public Long incrBy(String key, long increment) {
+        return store.incrBy(key, increment);
+    }
+
+    @Override
+    public Long del(String key) {
+        return store.del(key);
+    }
+
+    @Override
+    public Set<String> zrange(String key, long start, long end) {
+        return new LinkedHashSet<>(store.zrange(key, start, end));
+    }
+
+    @Override
+    public String flushAll() {
+        store.flushAll();
+        return "OK";
+    }
+
+    @Override
+    public Object evalsha(String sha, List<String> keys, List<String> args) {
+        throw new JedisDataException("NOSCRIPT a local store runs no Lua, use Script.eval");
+    }
+
+    @Override
+    public Object eval(String source, List<String> keys, List<String> args) {
+        throw new JedisDataException("ERR a local store runs no Lua, use Script.eval");
+    }
+
+    // nothing to close
+    @Override
+    public void disconnect() {
+    }
+
+    @Override
+    public void close() {
+    }
+
+    @Override
+    public String quit() {
+        return "OK";
+    }
+}
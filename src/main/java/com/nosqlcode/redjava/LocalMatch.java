@@ -0,0 +1,264 @@
+package com.nosqlcode.redjava;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The Finder's match script in Java, for local stores. Same arguments,
+ * same reply and the same steps as the Lua version in Mapper.Finder, see
+ * there: pick the driving index, walk it a window at a time and check
+ * every id against the other qualifiers.
+ */
+
+final class LocalMatch {
+
+
+    private static final int WINDOW = 500;
+
+    // above every character, ends a prefix range
+    private static final String LAST = new String(Character.toChars(Character.MAX_CODE_POINT));
+
+
+    private LocalMatch() {
+    }
+
+
+    static Object run(Store store, List<String> keys, List<String> args) {
+
+        int n = Integer.parseInt(args.get(0));
+        Qualifier[] q = new Qualifier[keys.size()];
+        for (int i = 0; i < q.length; i++) {
+            int a = 4 * i + 1;
+            q[i] = new Qualifier(keys.get(i), args.get(a), args.get(a + 1), args.get(a + 2), args.get(a + 3));
+        }
+        int a = 4 * q.length + 1;
+        String token = args.get(a);
+        Walk walk = new Walk(store, q, n);
+        walk.skip = Integer.parseInt(args.get(a + 1));
+        walk.count = Integer.parseInt(args.get(a + 2));
+        boolean reverse = args.get(a + 3).equals("1");
+
+        int pick = 0;
+        String at = null;
+        if (!token.isEmpty()) {
+            int colon = token.indexOf(':');
+            pick = Integer.parseInt(token.substring(0, colon)) - 1;
+            at = token.substring(colon + 1);
+        } else if (n < q.length) {
+            pick = n;
+        } else {
+            if (n == 0)
+                return walk.reply(null);
+            long best = -1;
+            for (int i = 0; i < n; i++) {
+                long size = size(store, q[i]);
+                if (size == 0)
+                    return walk.reply(null);
+                if (best < 0 || size < best) {
+                    best = size;
+                    pick = i;
+                }
+            }
+        }
+        Qualifier driver = q[pick];
+        if (pick < n && (!driver.lex() || driver.kind.equals("COMPOSITE")))
+            walk.checked[pick] = true;
+
+        if (driver.kind.equals("SET"))
+            at = walk.sets(driver, at);
+        else if (driver.lex())
+            at = walk.members(driver, at, reverse);
+        else
+            at = walk.scores(driver, at, reverse);
+        return walk.reply(at == null ? null : (pick + 1) + ":" + at);
+    }
+
+
+    // one call's walk over its driver, each returns the position after the last entry stepped on
+    private static final class Walk {
+
+        final Store store;
+        final Qualifier[] q;
+        final int n;
+        final boolean[] checked;
+        final List<String> found = new ArrayList<>();
+        int skip, count, examined;
+
+        Walk(Store store, Qualifier[] q, int n) {
+            this.store = store;
+            this.q = q;
+            this.n = n;
+            checked = new boolean[n];
+        }
+
+        // true once the page is full or the call examined its share of entries
+        boolean step(String id, boolean seen) {
+            if (!seen) {
+                examined++;
+                boolean match = true;
+                for (int i = 0; i < n && match; i++) {
+                    match = checked[i] || check(store, q[i], id);
+                }
+                if (match) {
+                    if (skip > 0)
+                        skip--;
+                    else
+                        found.add(id);
+                }
+            }
+            return (count >= 0 && found.size() == count) || examined >= Mapper.Finder.EXAMINE;
+        }
+
+        String scores(Qualifier r, String at, boolean reverse) {
+
+            double min = score(r.min), max = score(r.max);
+            Double last = null;
+            String member = null;
+            if (at != null) {
+                int space = at.indexOf(' ');
+                last = Double.parseDouble(at.substring(0, space));
+                member = at.substring(space + 1);
+                if (reverse)
+                    max = last;
+                else
+                    min = last;
+            }
+            for (int off = 0; ; off += WINDOW) {
+                List<String> chunk = store.zrangeByScore(r.key, min, max, off, WINDOW, reverse);
+                if (chunk.isEmpty())
+                    return null;
+                for (String id : chunk) {
+                    Double score = store.zscore(r.key, id);
+                    if (score == null)
+                        continue;
+                    // members of the last score sort by name, the ones up to the last id were seen
+                    boolean seen = last != null && score.equals(last)
+                            && (reverse ? MemoryStore.compare(member, id) <= 0 : MemoryStore.compare(id, member) <= 0);
+                    if (step(id, seen))
+                        return score + " " + id;
+                }
+            }
+        }
+
+        String members(Qualifier r, String at, boolean reverse) {
+
+            String min = r.lexMin(), max = r.lexMax();
+            if (at != null) {
+                if (reverse)
+                    max = "(" + at;
+                else
+                    min = "(" + at;
+            }
+            for (int off = 0; ; off += WINDOW) {
+                List<String> chunk = store.zrangeByLex(r.key, min, max, off, WINDOW, reverse);
+                if (chunk.isEmpty())
+                    return null;
+                for (String m : chunk) {
+                    String id = r.kind.equals("COMPOSITE") ? m.substring(r.min.length())
+                            : m.substring(m.indexOf('\0') + 1);
+                    if (step(id, false))
+                        return m;
+                }
+            }
+        }
+
+        // the store's sets are in id order, each batch starts after the last id stepped on
+        String sets(Qualifier r, String at) {
+
+            String last = at == null ? null : at.substring(at.indexOf(' ') + 1);
+            for (;;) {
+                List<String> batch = store.sscan(r.key, last, WINDOW);
+                if (batch.isEmpty())
+                    return null;
+                for (String id : batch) {
+                    if (step(id, false))
+                        return "0 " + id;
+                }
+                last = batch.get(batch.size() - 1);
+            }
+        }
+
+        List<String> reply(String next) {
+            List<String> reply = new ArrayList<>(found.size() + 2);
+            reply.add(next == null ? "" : next);
+            reply.add(Integer.toString(skip));
+            reply.addAll(found);
+            return reply;
+        }
+    }
+
+
+    private static long size(Store store, Qualifier r) {
+        if (r.kind.equals("SET"))
+            return store.scard(r.key);
+        if (r.lex())
+            return store.zlexcount(r.key, r.lexMin(), r.lexMax());
+        return store.zcount(r.key, score(r.min), score(r.max));
+    }
+
+    private static boolean check(Store store, Qualifier r, String id) {
+
+        if (r.kind.equals("SET"))
+            return store.sismember(r.key, id);
+        if (r.kind.equals("COMPOSITE"))
+            return store.zscore(r.key, r.min + id) != null;
+        if (r.kind.equals("SCORE")) {
+            Double score = store.zscore(r.key, id);
+            return score != null && score >= score(r.min) && score <= score(r.max);
+        }
+
+        byte[] raw = store.hget(id, r.attr);
+        if (raw == null)
+            return false;
+        String value = new String(raw, StandardCharsets.UTF_8);
+        if (r.kind.equals("EQUAL"))
+            return value.equals(r.min);
+        if (r.kind.equals("PREFIX"))
+            return value.startsWith(r.min);
+        return (r.min.isEmpty() || MemoryStore.compare(r.min, value) <= 0)
+                && (r.max.isEmpty() || MemoryStore.compare(value, r.max) <= 0);
+    }
+
+    private static double score(String bound) {
+        switch (bound) {
+            case "-inf": return Double.NEGATIVE_INFINITY;
+            case "+inf": case "inf": return Double.POSITIVE_INFINITY;
+            default: return Double.parseDouble(bound);
+        }
+    }
+
+
+    private static final class Qualifier {
+
+        final String key, kind, min, max, attr;
+
+        Qualifier(String key, String kind, String min, String max, String attr) {
+            this.key = key;
+            this.kind = kind;
+            this.min = min;
+            this.max = max;
+            this.attr = attr;
+        }
+
+        boolean lex() {
+            return !kind.equals("SCORE") && !kind.equals("SET");
+        }
+
+        String lexMin() {
+            if (kind.equals("EQUAL"))
+                return "[" + min + "\0";
+            if (kind.equals("PREFIX") || kind.equals("COMPOSITE"))
+                return "[" + min;
+            return min.isEmpty() ? "-" : "[" + min + "\0";
+        }
+
+        String lexMax() {
+            if (kind.equals("EQUAL"))
+                return "(" + min + "\1";
+            if (kind.equals("PREFIX") || kind.equals("COMPOSITE"))
+                return "(" + min + LAST;
+            return max.isEmpty() ? "+" : "(" + max + "\1";
+        }
+    }
+}
@@ -0,0 +1,205 @@
+package com.nosqlcode.redjava;
+
+import redis.clients.jedis.Builder;
+import redis.clients.jedis.Pipeline;
+import redis.clients.jedis.Response;
+import redis.clients.jedis.exceptions.JedisDataException;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Supplier;
+
+/**
+ * Pipeline of a LocalConnection. Commands are queued and run against the
+ * store on sync, in order, so responses behave as with a server: not
+ * ready before sync, an error thrown by get() of its own command only.
+ *
+ * Only the commands the mapper sends are implemented, the same ones
+ * ShardedPipeline routes. A MULTI/EXEC block runs while holding the
+ * connection's transaction lock, so blocks never interleave with each
+ * other; plain commands and readers are not held back by it.
+ */
+
+final class LocalPipeline extends Pipeline {
+
+
+    private static final Builder<Object> AS_IS = new Builder<Object>() {
+        @Override
+        public Object build(Object data) {
+            return data;
+        }
+    };
+
+    private final Store store;
+    private final Object transactions;
+    private List<Queued> queued = new ArrayList<>();
+    private List<Queued> outside;
+
+
+    LocalPipeline(Store store, Object transactions) {
+        this.store = store;
+        this.transactions = transactions;
+    }
+
+
+    @Override
+    public Response<String> multi() {
+        if (outside != null)
+            throw new JedisDataException("ERR MULTI calls can not be nested");
+        Response<String> ok = queue(() -> "OK");
+        outside = queued;
+        queued = new ArrayList<>();
+        return ok;
+    }
+
+    // the block becomes one queued command whose reply is the list of its replies
+    @Override
+    public Response<List<Object>> exec() {
+        if (outside == null)
+            throw new JedisDataException("ERR EXEC without MULTI");
+        List<Queued> block = queued;
+        queued = outside;
+        outside = null;
+        return queue(() -> {
+            synchronized (transactions) {
+                List<Object> replies = new ArrayList<>(block.size());
+                for (Queued command : block) {
+                    replies.add(command.run());
+                }
+                return replies;
+            }
+        });
+    }
+
+    @Override
+    public void sync() {
+        List<Queued> commands = queued;
+        queued = new ArrayList<>();
+        for (Queued command : commands) {
+            command.run();
+        }
+    }
+
+    @Override
+    public List<Object> syncAndReturnAll() {
+        List<Queued> commands = queued;
+        queued = new ArrayList<>();
+        List<Object> replies = new ArrayList<>(commands.size());
+        for (Queued command : commands) {
+            replies.add(command.run());
+        }
+        return replies;
+    }
+
+
+    @Override
+    public Response<byte[]> hget(byte[] key, byte[] field) {
+        return queue(() -> store.hget(string(key), string(field)));
+    }
+
+    @Override
+    public Response<String> hget(String key, String field) {
+        return queue(() -> {
+            byte[] value = store.hget(key, field);
+            return value == null ? null : string(value);
+        });
+    }
+
+    @Override
+    public Response<Long> hset(byte[] key, byte[] field, byte[] value) {
+        return queue(() -> store.hset(string(key), string(field), value));
+    }
+
+    @Override
+    public Response<Long> hdel(String key, String... fields) {
+        return queue(() -> store.hdel(key, fields));
+    }
+
+    @Override
+    public Response<Long> del(String key) {
+        return queue(() -> store.del(key));
+    }
+
+    @Override
+    public Response<Long> llen(byte[] key) {
+        return queue(() -> store.llen(string(key)));
+    }
+
+    @Override
+    public Response<List<byte[]>> lrange(byte[] key, long start, long end) {
+        return queue(() -> store.lrange(string(key), start, end));
+    }
+
+    @Override
+    public Response<Long> rpush(byte[] key, byte[]... values) {
+        return queue(() -> store.rpush(string(key), values));
+    }
+
+    @Override
+    public Response<Long> incrBy(String key, long increment) {
+        return queue(() -> store.incrBy(key, increment));
+    }
+
+    // nobody else shares the store, there is no one to tell
+    @Override
+    public Response<Long> publish(String channel, String message) {
+        return queue(() -> 0L);
+    }
+
+    @Override
+    public Response<Long> zadd(String key, double score, String member) {
+        return queue(() -> store.zadd(key, score, member));
+    }
+
+    @Override
+    public Response<Long> zrem(String key, String... members) {
+        return queue(() -> store.zrem(key, members));
+    }
+
+    @Override
+    public Response<Long> sadd(String key, String... members) {
+        return queue(() -> store.sadd(key, members));
+    }
+
+    @Override
+    public Response<Long> srem(String key, String... members) {
+        return queue(() -> store.srem(key, members));
+    }
+
+
+    // the response is made for the command's own result type
+    @SuppressWarnings("unchecked")
+    private <T> Response<T> queue(Supplier<T> command) {
+        Queued queued = new Queued(command);
+        this.queued.add(queued);
+        return (Response<T>) queued.response;
+    }
+
+    static String string(byte[] bytes) {
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+
+    private static final class Queued {
+
+        final Supplier<?> command;
+        final Response<Object> response = new Response<>(AS_IS);
+
+        Queued(Supplier<?> command) {
+            this.command = command;
+        }
+
+        // errors are kept as the reply, like a server's error reply
+        Object run() {
+            Object reply;
+            try {
+                reply = command.get();
+            } catch (RuntimeException e) {
+                reply = new JedisDataException(e.getMessage(), e);
+            }
+            response.set(reply);
+            return reply;
+        }
+    }
+}
@@ -9,13 +9,33 @@ package com.nosqlcode.redjava;
 import redis.clients.jedis.Jedis;
 import redis.clients.jedis.Pipeline;
 import redis.clients.jedis.Response;
+import redis.clients.jedis.exceptions.JedisConnectionException;
 
-import java.lang.reflect.Field;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
-import java.util.Set;
-import java.util.function.BiConsumer;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+import java.util.function.LongConsumer;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 
 // demo comment
@@ -24,66 +44,101 @@ import java.util.function.BiConsumer;
 public class Mapper {
 
 
+    // objects written or read per pipeline by the bulk operations
+    public static final int DEFAULT_BATCH_SIZE = 1000;
+
+    // list elements per RPUSH and per LRANGE, keeps single replies and commands small
+    static final int LIST_CHUNK_SIZE = 1000;
+
+    // levels of @RedObj references followed when loading
+    public static final int DEFAULT_MAX_DEPTH = 16;
+
+    // strategy for new object and list ids, shared by every mapper
+    private static volatile IdAllocator idAllocator = new SequentialIdAllocator();
+
+    private static volatile int maxDepth = DEFAULT_MAX_DEPTH;
+
+    // optional cache consulted before every read, see NearCache
+    private static volatile NearCache nearCache;
+
+    // threads of the asynchronous operations, created on first use unless one is set
+    public static final int DEFAULT_ASYNC_THREADS = 8;
+    private static volatile Executor executor;
+    private static volatile boolean coalescing = true;
+
+    // writes of each saved or deleted object as one script call, see AtomicPipeline
+    private static volatile boolean scripted;
+
+    // told about every operation and pipeline when set, see Metrics
+    private static volatile RedListener listener;
+
     // reference to original object
     private Object instance;
 
     // members that access original object members
-    private ArrayList<Member> members = new ArrayList<>();
+    private ArrayList<Member<?>> members = new ArrayList<>();
+    private Schema schema;
     private String type;
     private String id;
 
-    // pool of redis client connections
-    private Jedis jedis = Pool.getJedis();
+    /* connection of the running operation. mappers made with the public
+    constructors borrow one from the pool per call and hold none between
+    calls, nested, bulk and session mappers are handed theirs */
+    private Jedis jedis;
+    private boolean pooled;
     private Pipeline pipe;
 
-    private Index index = new Index();
+    // what the running save wrote and skipped, shared with nested mappers
+    private WriteStats stats = new WriteStats();
 
+    // bytes of field values and list elements queued by the current write
+    private long written;
 
-    public Mapper(Object obj) {
+    // the graph load this mapper is part of, only while it runs
+    private Graph graph;
 
-        instance = obj;
-        type = instance.getClass().getSimpleName();
+    // set while the members of this mapper are walked, stops at cycles in a loaded graph
+    private boolean visiting;
+
+    // the running read was answered by the near cache, or collects an entry for it
+    private boolean hit;
+    private Object[] caching;
+    private long generation;
 
+    // the running write dropped this object from the near cache, see invalidated()
+    private boolean stale;
 
-        // iterate fields of object
-        for (Field field : obj.getClass().getFields()) {
 
+    public Mapper(Object obj) {
+
+        this(obj, (Jedis) null);
+        pooled = true;
+    }
 
-            /* obtain reference variable name to later be used
-            as the attribute in a redis hashmap */
-            String fieldName = field.getName();
 
+    // nested mappers share the connection of the mapper that owns them
+    Mapper(Object obj, Jedis jedis) {
 
-            /* determine what type of member the field is
-            and create member */
+        this.jedis = jedis;
 
+        instance = obj;
+        schema = Schema.of(obj.getClass());
+        type = schema.getType();
 
-            if (field.isAnnotationPresent(RedLst.class)) {
 
-                if (field.isAnnotationPresent(RedStr.class))
-                    members.add(new PrimitiveListMember<>(
-                            field, fieldName, new StringFormatter()));
-                else if (field.isAnnotationPresent(RedInt.class))
-                    members.add(new PrimitiveListMember<>(
-                            field, fieldName, new IntegerFormatter()));
-                else if (field.isAnnotationPresent(RedBool.class))
-                    members.add(new PrimitiveListMember<>(
-                            field, fieldName, new BooleanFormatter()));
-            } else {
+        // create a member for every mapped field, the schema is cached per class
+        for (Schema.Property property : schema.getProperties()) {
 
-                if (field.isAnnotationPresent(RedStr.class))
-                    members.add(new PrimitiveMember<>(
-                            field, fieldName, new StringFormatter()));
-                else if (field.isAnnotationPresent(RedInt.class))
-                    members.add(new PrimitiveMember<>(
-                            field, fieldName, new IntegerFormatter()));
-                else if (field.isAnnotationPresent(RedObj.class))
-                    members.add(new Obj(field, fieldName));
-                else if (field.isAnnotationPresent(RedBool.class))
-                    members.add(new PrimitiveMember<>(
-                            field, fieldName, new BooleanFormatter()));
+            switch (property.kind) {
+                case LIST: members.add(new PrimitiveListMember(property)); break;
+                case OBJECT: members.add(new Obj(property)); break;
+                default: members.add(new PrimitiveMember(property));
             }
+        }
 
+        // composite indexes follow the fields, which are saved and loaded before them
+        for (Schema.Composite composite : schema.getComposites()) {
+            members.add(new CompositeMember(composite));
         }
     }
 
@@ -100,32 +155,119 @@ public class Mapper {
         return id;
     }
 
+    void setId(String id) {
+        this.id = id;
+    }
+
+    Object getInstance() {
+        return instance;
+    }
 
-    // persist data to redis
-    public void save() {
 
-        // create new hash map if there is no id
-        if (id == null)
-            id = type + ":" + Long.toString(jedis.incr(type));
+    public static void setIdAllocator(IdAllocator allocator) {
+        idAllocator = allocator;
+    }
 
-        pipe = jedis.pipelined();
-        for (Member member : members) {
-            member.save();
-        }
-        pipe.sync();
+    public static void setExecutor(Executor asyncExecutor) {
+        executor = asyncExecutor;
+    }
+
+    /* with coalescing on, asynchronous calls of one kind that are waiting
+    are sent together, in shared pipelines on one connection. off, every
+    call takes its own connection */
+    public static void setCoalescing(boolean coalesce) {
+        coalescing = coalesce;
+    }
+
+    /* with scripting on, every object a save or delete touches is written
+    by one EVALSHA, so its hash, lists and indexes change together. a
+    script runs on one server, so shards refuse it */
+    public static void setScripted(boolean script) {
+        if (script && Pool.isSharded())
+            throw new UnsupportedOperationException("scripted writes across shards");
+        scripted = script;
+    }
+
+    // null, the default, times and counts nothing
+    public static void setListener(RedListener redListener) {
+        listener = redListener;
+    }
+
+    static RedListener getListener() {
+        return listener;
+    }
+
+    // null turns the near cache off again
+    public static void setNearCache(NearCache cache) {
+        nearCache = cache;
+    }
+
+    // 0 loads no referenced objects at all, deeper references are left as they are
+    public static void setMaxDepth(int depth) {
+        if (depth < 0)
+            throw new IllegalArgumentException("negative depth");
+        maxDepth = depth;
+    }
+
+
+    /* persist data to redis. fields are compared with the values last
+    loaded or saved through this mapper and only changed ones are written */
+    public WriteStats save() {
+
+        return connected(RedListener.Operation.SAVE, jedis ->
+                flush(jedis, Collections.singletonList(this), Collections.<Mapper>emptyList(), false));
+    }
+
+    /* save and delete several mappers on one connection. one round trip
+    for new ids and one for old index values, each only when needed, then
+    one for all writes and deletes, wrapped in MULTI/EXEC on request */
+    static WriteStats flush(Jedis jedis, Collection<Mapper> saves, Collection<Mapper> deletes,
+                            boolean transaction) {
+
+        // create new hash maps for these objects and their children before the pipeline starts
+        Map<String, List<LongConsumer>> pending = new LinkedHashMap<>();
+        for (Mapper mapper : saves)
+            mapper.pendingIds(pending);
+        assignIds(jedis, pending);
+
+        // value keyed indexes of an object saved or deleted under a given id need its old values
+        Pipeline pipe = jedis.pipelined();
+        for (Mapper mapper : saves)
+            mapper.readPrevious(pipe);
+        for (Mapper mapper : deletes)
+            mapper.readPrevious(pipe);
+        sync(pipe);
+        for (Mapper mapper : saves)
+            mapper.applyPrevious();
+        for (Mapper mapper : deletes)
+            mapper.applyPrevious();
+
+        WriteStats stats = new WriteStats();
+        pipe = writePipeline(jedis);
+        if (transaction)
+            pipe.multi();
+        for (Mapper mapper : saves)
+            mapper.write(pipe, stats);
+        for (Mapper mapper : deletes)
+            mapper.remove(pipe);
+        if (transaction)
+            pipe.exec();
+        sync(pipe);
+        for (Mapper mapper : saves)
+            mapper.invalidated();
+        for (Mapper mapper : deletes)
+            mapper.invalidated();
+        return stats;
     }
 
-    // pipeline redis get requests and then initialize them into object instance
+    /* pipeline redis get requests and then initialize them into object instance.
+    referenced objects are loaded too, one round trip per level of references */
     public void load() {
 
-        pipe = jedis.pipelined();
-        for (Member member : members) {
-            member.load();
-        }
-        pipe.sync();
-        for (Member member : members) {
-            member.sync();
-        }
+        connected(RedListener.Operation.LOAD, jedis -> {
+            readGraph(jedis, Collections.singletonList(this));
+            return null;
+        });
     }
 
     public void load(String id) {
@@ -134,271 +276,1182 @@ public class Mapper {
         this.load();
     }
 
+    /* remove the object and its index entries. values that key an entry
+    and were not loaded through this mapper are read first */
     public void delete() {
 
-        pipe = jedis.pipelined();
-        for (Member member : members) {
-            member.delete();
+        connected(RedListener.Operation.DELETE, jedis ->
+                flush(jedis, Collections.<Mapper>emptyList(), Collections.singletonList(this), false));
+    }
+
+    /* run one operation on the connection this mapper was handed, or on one
+    borrowed for it, from a replica when it only reads */
+    private <R> R connected(RedListener.Operation op, Function<Jedis, R> operation) {
+
+        RedListener listen = listener;
+        if (listen == null)
+            return connected(op == RedListener.Operation.LOAD, operation);
+
+        long start = System.nanoTime();
+        boolean failed = true;
+        try {
+            R result = connected(op == RedListener.Operation.LOAD, operation);
+            failed = false;
+            return result;
+        } finally {
+            listen.operation(op, instance.getClass(), System.nanoTime() - start, failed);
+        }
+    }
+
+    private <R> R connected(boolean read, Function<Jedis, R> operation) {
+
+        if (!pooled)
+            return operation.apply(jedis);
+
+        Function<Jedis, R> borrowed = jedis -> {
+            this.jedis = jedis;
+            return operation.apply(jedis);
+        };
+        try {
+            return read ? withReadJedis(borrowed) : withJedis(borrowed);
+        } finally {
+            jedis = null;
+        }
+    }
+
+    /* send a pipeline and read its replies. with a listener the replies
+    are counted too, which costs a list of them */
+    static void sync(Pipeline pipe) {
+
+        RedListener listen = listener;
+        if (listen == null) {
+            pipe.sync();
+            return;
+        }
+        long start = System.nanoTime();
+        int commands = pipe.syncAndReturnAll().size();
+        listen.synced(commands, System.nanoTime() - start);
+    }
+
+    /* pipeline for saves and deletes, scripted or plain. a script runs on one
+    node, the objects of one save can be on several shards, so they are
+    refused. local stores, which run no Lua, write plain */
+    static Pipeline writePipeline(Jedis jedis) {
+        if (!scripted || jedis instanceof LocalConnection)
+            return jedis.pipelined();
+        if (jedis instanceof ShardedConnection)
+            throw new UnsupportedOperationException("scripted writes across shards");
+        return new AtomicPipeline(jedis);
+    }
+
+    // borrow a connection for one call, one that failed is closed instead of reused
+    static <R> R withJedis(Function<Jedis, R> operation) {
+        return run(Pool.getJedis(), operation);
+    }
+
+    // the same for calls that only read, see Pool.connectReplicated
+    static <R> R withReadJedis(Function<Jedis, R> operation) {
+        return run(Pool.getReadJedis(), operation);
+    }
+
+    private static <R> R run(Jedis jedis, Function<Jedis, R> operation) {
+
+        try {
+            R result = operation.apply(jedis);
+            Pool.returnJedis(jedis);
+            return result;
+        } catch (JedisConnectionException e) {
+            Pool.returnBrokenJedis(jedis);
+            throw e;
+        } catch (RuntimeException | Error e) {
+            Pool.returnJedis(jedis);
+            throw e;
+        }
+    }
+
+
+    // persist many new objects, one id round trip and one pipeline per batch
+    public static List<String> saveAll(Collection<?> objects) {
+        return saveAll(objects, DEFAULT_BATCH_SIZE);
+    }
+
+    public static List<String> saveAll(Collection<?> objects, int batchSize) {
+
+        checkBatchSize(batchSize);
+        List<String> ids = new ArrayList<>(objects.size());
+
+        Jedis jedis = Pool.getJedis();
+        try {
+            Iterator<?> it = objects.iterator();
+            while (it.hasNext()) {
+
+                List<Mapper> batch = new ArrayList<>();
+                Map<String, List<LongConsumer>> pending = new LinkedHashMap<>();
+                while (it.hasNext() && batch.size() < batchSize) {
+                    Mapper mapper = new Mapper(it.next(), jedis);
+                    mapper.pendingIds(pending);
+                    batch.add(mapper);
+                }
+                assignIds(jedis, pending);
+
+                Pipeline pipe = writePipeline(jedis);
+                WriteStats stats = new WriteStats();
+                for (Mapper mapper : batch)
+                    mapper.write(pipe, stats);
+                sync(pipe);
+                for (Mapper mapper : batch)
+                    mapper.invalidated();
+
+                for (Mapper mapper : batch)
+                    ids.add(mapper.getId());
+            }
+        } finally {
+            Pool.returnJedis(jedis);
+        }
+        return ids;
+    }
+
+    // load many objects, one pipeline per batch
+    public static <T> List<T> loadAll(List<String> ids, Supplier<T> factory) {
+        return loadAll(ids, factory, DEFAULT_BATCH_SIZE);
+    }
+
+    // the instances come from the factory, so they are T
+    @SuppressWarnings("unchecked")
+    public static <T> List<T> loadAll(List<String> ids, Supplier<T> factory, int batchSize) {
+
+        checkBatchSize(batchSize);
+        List<T> objects = new ArrayList<>(ids.size());
+
+        Jedis jedis = Pool.getReadJedis();
+        try {
+            for (List<Mapper> batch : readAll(jedis, ids, factory, batchSize)) {
+                for (Mapper mapper : batch)
+                    objects.add((T) mapper.instance);
+            }
+        } finally {
+            Pool.returnJedis(jedis);
+        }
+        return objects;
+    }
+
+    // delete many objects; they are loaded first so lists and children can be found
+    public static void deleteAll(List<String> ids, Supplier<?> factory) {
+        deleteAll(ids, factory, DEFAULT_BATCH_SIZE);
+    }
+
+    public static void deleteAll(List<String> ids, Supplier<?> factory, int batchSize) {
+
+        checkBatchSize(batchSize);
+        Jedis jedis = Pool.getJedis();
+        try {
+            for (List<Mapper> batch : readAll(jedis, ids, factory, batchSize)) {
+
+                Pipeline pipe = writePipeline(jedis);
+                for (Mapper mapper : batch)
+                    mapper.remove(pipe);
+                sync(pipe);
+                for (Mapper mapper : batch)
+                    mapper.invalidated();
+            }
+        } finally {
+            Pool.returnJedis(jedis);
+        }
+    }
+
+    // insert an object under a new id without blocking, completes with the id
+    public static CompletableFuture<String> saveAsync(Object obj) {
+        return SAVES.submit(new SaveRequest(obj, null, null), executor(), coalescing);
+    }
+
+    // save an object under the id it is stored with, replacing what is there
+    public static CompletableFuture<String> saveAsync(Object obj, String id) {
+        return SAVES.submit(new SaveRequest(obj, id, null), executor(), coalescing);
+    }
+
+    /* save() on the executor, only what changed since the mapper last loaded
+    or saved is written. the mapper must not be used until the future completes */
+    public static CompletableFuture<String> saveAsync(Mapper mapper) {
+        return SAVES.submit(new SaveRequest(null, null, mapper), executor(), coalescing);
+    }
+
+    public static <T> CompletableFuture<T> loadAsync(String id, Supplier<T> factory) {
+        return LOADS.submit(new LoadRequest(id, factory), executor(), coalescing);
+    }
+
+    public static CompletableFuture<Void> deleteAsync(String id, Supplier<?> factory) {
+        return DELETES.submit(new LoadRequest(id, factory), executor(), coalescing);
+    }
+
+    static Executor executor() {
+
+        Executor current = executor;
+        if (current == null) {
+            synchronized (Mapper.class) {
+                if (executor == null) {
+                    AtomicInteger threads = new AtomicInteger();
+                    executor = Executors.newFixedThreadPool(DEFAULT_ASYNC_THREADS, task -> {
+                        Thread thread = new Thread(task, "redjava-async-" + threads.incrementAndGet());
+                        thread.setDaemon(true);
+                        return thread;
+                    });
+                }
+                current = executor;
+            }
+        }
+        return current;
+    }
+
+
+    private static final class SaveRequest extends Coalescer.Request<String> {
+
+        final Object obj;
+        final String id;
+        final Mapper mapper;
+
+        SaveRequest(Object obj, String id, Mapper mapper) {
+            this.obj = obj;
+            this.id = id;
+            this.mapper = mapper;
+        }
+    }
+
+    private static final class LoadRequest extends Coalescer.Request<Object> {
+
+        final String id;
+        final Supplier<?> factory;
+
+        LoadRequest(String id, Supplier<?> factory) {
+            this.id = id;
+            this.factory = factory;
+        }
+    }
+
+    // one flush for every waiting save
+    private static final Coalescer<SaveRequest> SAVES = new Coalescer<>(false, (jedis, requests) -> {
+
+        List<Mapper> mappers = new ArrayList<>(requests.size());
+        for (SaveRequest request : requests) {
+            Mapper mapper = request.mapper;
+            if (mapper == null) {
+                mapper = new Mapper(request.obj, jedis);
+                mapper.id = request.id;
+            }
+            mappers.add(mapper);
+        }
+
+        flush(jedis, mappers, Collections.<Mapper>emptyList(), false);
+
+        for (int i = 0; i < requests.size(); i++)
+            requests.get(i).future.complete(mappers.get(i).getId());
+    });
+
+    // one graph read for every waiting load
+    private static final Coalescer<LoadRequest> LOADS = new Coalescer<>(true, (jedis, requests) -> {
+
+        List<Mapper> mappers = read(jedis, requests);
+        for (int i = 0; i < requests.size(); i++)
+            requests.get(i).future.complete(mappers.get(i).instance);
+    });
+
+    // deletes are loaded first, like deleteAll
+    private static final Coalescer<LoadRequest> DELETES = new Coalescer<>(false, (jedis, requests) -> {
+
+        List<Mapper> mappers = read(jedis, requests);
+        Pipeline pipe = writePipeline(jedis);
+        for (Mapper mapper : mappers)
+            mapper.remove(pipe);
+        sync(pipe);
+        for (Mapper mapper : mappers)
+            mapper.invalidated();
+
+        for (LoadRequest request : requests)
+            request.future.complete(null);
+    });
+
+    private static List<Mapper> read(Jedis jedis, List<LoadRequest> requests) {
+
+        List<Mapper> mappers = new ArrayList<>(requests.size());
+        for (LoadRequest request : requests) {
+            Mapper mapper = new Mapper(request.factory.get(), jedis);
+            mapper.id = request.id;
+            mappers.add(mapper);
+        }
+        readGraph(jedis, mappers);
+        return mappers;
+    }
+
+    private static void checkBatchSize(int batchSize) {
+        if (batchSize < 1)
+            throw new IllegalArgumentException("batch size must be positive");
+    }
+
+    private static List<List<Mapper>> readAll(Jedis jedis, List<String> ids,
+                                              Supplier<?> factory, int batchSize) {
+
+        List<List<Mapper>> batches = new ArrayList<>();
+
+        for (int from = 0; from < ids.size(); from += batchSize) {
+
+            List<Mapper> batch = new ArrayList<>();
+            for (String id : ids.subList(from, Math.min(from + batchSize, ids.size()))) {
+                Mapper mapper = new Mapper(factory.get(), jedis);
+                mapper.id = id;
+                batch.add(mapper);
+            }
+            readGraph(jedis, batch);
+            batches.add(batch);
+        }
+        return batches;
+    }
+
+    /* load the roots and the objects they reference breadth first. each
+    pipeline carries the dependent reads of one level (list contents) and
+    the hash reads of the next, so a graph costs one round trip per level
+    however many objects each level has, plus one for the rest of the lists
+    longer than a chunk on it. an object referenced more than once, or by a
+    cycle, is read once and shared. what a replica returned is neither
+    cached nor trusted by the next save, see Member.lagging */
+    private static void readGraph(Jedis jedis, List<Mapper> roots) {
+        readGraph(jedis, roots, new HashMap<String, Mapper>());
+    }
+
+    // identity may already hold mappers, references to them are not read again
+    static void readGraph(Jedis jedis, List<Mapper> roots, Map<String, Mapper> identity) {
+
+        Graph graph = new Graph(identity, maxDepth, Pool.isReplica(jedis));
+        for (Mapper root : roots) {
+            graph.identity.put(root.id, root);
+        }
+
+        Pipeline pipe = jedis.pipelined();
+        for (Mapper mapper : roots) {
+            mapper.jedis = jedis;
+            mapper.read(pipe);
+        }
+        sync(pipe);
+
+        List<Mapper> level = roots;
+        while (!level.isEmpty()) {
+
+            graph.next = new ArrayList<>();
+            pipe = jedis.pipelined();
+            for (Mapper mapper : level)
+                mapper.readDependent(pipe, graph);
+            for (Mapper mapper : graph.next) {
+                mapper.jedis = jedis;
+                mapper.read(pipe);
+            }
+            sync(pipe);
+
+            Pipeline rest = null;
+            for (Mapper mapper : level) {
+                if (!mapper.partial())
+                    continue;
+                if (rest == null)
+                    rest = jedis.pipelined();
+                mapper.readRest(rest);
+            }
+            if (rest != null)
+                sync(rest);
+
+            for (Mapper mapper : level)
+                mapper.apply();
+
+            level = graph.next;
+            graph.depth++;
+        }
+    }
+
+    // state of one graph load: every mapper by id, and the next level to read
+    private static final class Graph {
+
+        final Map<String, Mapper> identity;
+        final int maxDepth;
+        // read from a replica, which can be behind the primary
+        final boolean replica;
+        List<Mapper> next;
+        int depth;
+
+        Graph(Map<String, Mapper> identity, int maxDepth, boolean replica) {
+            this.identity = identity;
+            this.maxDepth = maxDepth;
+            this.replica = replica;
+        }
+    }
+
+
+    // register a callback for every id this object graph still needs, keyed by counter
+    void pendingIds(Map<String, List<LongConsumer>> pending) {
+
+        if (visiting)
+            return;
+        visiting = true;
+        try {
+            collectIds(pending);
+        } finally {
+            visiting = false;
+        }
+    }
+
+    private void collectIds(Map<String, List<LongConsumer>> pending) {
+
+        if (id == null)
+            pending(pending, type).add(value -> {
+                id = type + ":" + value;
+                for (Member<?> member : members) {
+                    member.created();
+                }
+            });
+
+        for (Member<?> member : members) {
+            member.pendingIds(pending);
+        }
+    }
+
+    private static List<LongConsumer> pending(Map<String, List<LongConsumer>> pending, String counter) {
+
+        List<LongConsumer> callbacks = pending.get(counter);
+        if (callbacks == null) {
+            callbacks = new ArrayList<>();
+            pending.put(counter, callbacks);
+        }
+        return callbacks;
+    }
+
+    // hand every pending callback an id from the configured allocator
+    static void assignIds(Jedis jedis, Map<String, List<LongConsumer>> pending) {
+
+        if (pending.isEmpty())
+            return;
+
+        Map<String, Integer> counts = new HashMap<>();
+        for (Map.Entry<String, List<LongConsumer>> counter : pending.entrySet()) {
+            counts.put(counter.getKey(), counter.getValue().size());
+        }
+
+        Map<String, long[]> ids = idAllocator.allocate(jedis, counts);
+
+        for (Map.Entry<String, List<LongConsumer>> counter : pending.entrySet()) {
+
+            List<LongConsumer> callbacks = counter.getValue();
+            long[] range = ids.get(counter.getKey());
+            for (int i = 0; i < callbacks.size(); i++) {
+                callbacks.get(i).accept(range[i]);
+            }
+        }
+    }
+
+    // queue the commands of each phase on a pipeline that may be shared with other mappers
+    void write(Pipeline pipe, WriteStats stats) {
+
+        if (visiting)
+            return;
+        visiting = true;
+        // the referenced objects share the script call of the object that owns them
+        boolean unit = pipe instanceof AtomicPipeline && ((AtomicPipeline) pipe).begin();
+        try {
+            this.pipe = pipe;
+            this.stats = stats;
+            int changed = stats.written;
+            written = 0;
+            for (Member<?> member : members) {
+                member.save();
+            }
+            if (stats.written != changed) {
+                invalidate(pipe);
+                RedListener listen = listener;
+                if (listen != null)
+                    listen.written(instance.getClass(), written);
+            }
+        } finally {
+            visiting = false;
+            if (unit)
+                ((AtomicPipeline) pipe).end();
+        }
+    }
+
+    void readPrevious(Pipeline pipe) {
+
+        this.pipe = pipe;
+        for (Member<?> member : members) {
+            member.loadPrevious();
+        }
+    }
+
+    void applyPrevious() {
+
+        for (Member<?> member : members) {
+            member.syncPrevious();
+        }
+    }
+
+    void read(Pipeline pipe) {
+
+        this.pipe = pipe;
+
+        NearCache cache = nearCache;
+        Object[] entry = cache == null ? null : cache.get(id);
+        hit = entry != null;
+        if (cache != null && !hit)
+            generation = cache.generation(id);
+
+        for (Member<?> member : members) {
+            if (hit)
+                member.cached(entry[member.slot]);
+            else
+                member.load();
+        }
+    }
+
+    void readDependent(Pipeline pipe, Graph graph) {
+
+        this.pipe = pipe;
+        this.graph = graph;
+        for (Member<?> member : members) {
+            member.loadDependent();
+        }
+    }
+
+    // whether loadDependent() left reads for another round trip
+    boolean partial() {
+        for (Member<?> member : members) {
+            if (member.partial())
+                return true;
+        }
+        return false;
+    }
+
+    void readRest(Pipeline pipe) {
+
+        this.pipe = pipe;
+        for (Member<?> member : members) {
+            if (member.partial())
+                member.loadRest();
+        }
+    }
+
+    void apply() {
+
+        boolean replica = graph != null && graph.replica;
+        graph = null;
+
+        NearCache cache = nearCache;
+        caching = cache != null && !hit && !replica ? new Object[members.size()] : null;
+        for (Member<?> member : members) {
+            member.sync();
+        }
+        if (replica) {
+            for (Member<?> member : members) {
+                member.lagging();
+            }
+        }
+        if (caching != null)
+            cache.put(id, caching, generation);
+        caching = null;
+        hit = false;
+    }
+
+    void remove(Pipeline pipe) {
+
+        if (visiting)
+            return;
+        visiting = true;
+        boolean unit = pipe instanceof AtomicPipeline && ((AtomicPipeline) pipe).begin();
+        try {
+            this.pipe = pipe;
+            for (Member<?> member : members) {
+                member.delete();
+            }
+            if (id != null)
+                invalidate(pipe);
+        } finally {
+            visiting = false;
+            if (unit)
+                ((AtomicPipeline) pipe).end();
+        }
+    }
+
+    // drop the cached copy here and, once the pipeline ran, in every listening process
+    private void invalidate(Pipeline pipe) {
+
+        NearCache cache = nearCache;
+        if (cache != null) {
+            cache.invalidate(id);
+            pipe.publish(NearCache.CHANNEL, id);
+            stale = true;
+        }
+    }
+
+    /* drop the objects of this graph that the synced pipeline wrote once
+    more: a load between invalidate() and the pipeline read the old values
+    and may have cached them */
+    void invalidated() {
+
+        if (visiting)
+            return;
+        visiting = true;
+        try {
+            NearCache cache = nearCache;
+            if (stale && cache != null)
+                cache.invalidate(id);
+            stale = false;
+            for (Member<?> member : members) {
+                member.invalidated();
+            }
+        } finally {
+            visiting = false;
         }
-        pipe.sync();
     }
 
     public SearchCriteria getCriteria() {
 
         SearchCriteria searchCriteria = new SearchCriteria();
 
-        for (Member member : members) {
+        for (Member<?> member : members) {
             member.criteria(searchCriteria);
         }
 
         return  searchCriteria;
     }
 
+    // connections are borrowed per operation, there is nothing left to release
     public void close() {
-        Pool.returnJedis(jedis);
     }
 
 
     // abstract class for all member types to extend
     private abstract class Member<T> {
 
-        protected Field field;
+        protected Schema.Property property;
         protected String attr;
-        protected Response future;
+        protected byte[] attrBytes;
+        protected Response<?> future;
+
+        // position among the members of the mapper, also in near cache entries
+        protected final int slot;
+
+        Member(Schema.Property property) {
+            this.slot = members.size();
+            this.property = property;
+            this.attr = property.attr;
+            this.attrBytes = property.attrBytes;
+        }
+
+        // a member of no single field
+        Member() {
+            this.slot = members.size();
+        }
+
+        // ids this member needs before it can be saved
+        public void pendingIds(Map<String, List<LongConsumer>> pending) {
+        }
+
+        // the object was just given a new id, nothing of it is in redis yet
+        public void created() {
+        }
+
+        // read what is stored before overwriting it, when indexes need the old value
+        public void loadPrevious() {
+        }
 
-        Member(Field field, String attr) {
-            this.field = field;
-            this.attr = attr;
+        public void syncPrevious() {
         }
 
         abstract public void save();
         abstract public void load();
+
+        // queue reads that depend on the results of load()
+        public void loadDependent() {
+        }
+
+        // whether the results of loadDependent() call for more reads, queued by loadRest()
+        public boolean partial() {
+            return false;
+        }
+
+        public void loadRest() {
+        }
+
+        // the write was synced, see Mapper.invalidated()
+        public void invalidated() {
+        }
+
+        /* the values just read came from a replica. a save must not skip or
+        remove index entries by them, it reads the primary again first */
+        public void lagging() {
+        }
+
         public abstract void sync();
         abstract public void delete();
 
+        // take what sync() recorded into a near cache entry instead of loading
+        public abstract void cached(Object raw);
+
         protected void saveIndex(double score) {
-            pipe.zadd(indexKey(), score, id);
+            if (property.indexed)
+                pipe.zadd(indexKey(), score, id);
         }
         protected String indexKey() {
-            return "index:" + type + ":" + attr;
+            return property.indexKey;
         }
         protected void deleteIndex() {
-            pipe.zrem(indexKey(), id);
+            if (property.indexed)
+                pipe.zrem(indexKey(), id);
         }
 
+        // members are typed after the field they map
+        @SuppressWarnings("unchecked")
         protected T value() {
-            T val = null;
-            try {
-                val = (T) field.get(instance);
-            } catch (IllegalAccessException e) {
-                e.printStackTrace();
-            }
-            return val;
+            return (T) property.accessor.get(instance);
+        }
+
+        protected void value(Object val) {
+            property.accessor.set(instance, val);
         }
 
         abstract public void criteria(SearchCriteria searchCriteria);
     }
 
-    public class Obj extends Member {
+    public class Obj extends Member<Object> {
 
         private Mapper mapper;
 
-        public Obj(Field field, String attr) {
+        // id of the child last saved or loaded by this mapper
+        private String reference;
 
-            super(field, attr);
+        public Obj(Schema.Property property) {
 
-            Object target = null;
-            try {
-                target = field.get(instance);
-            } catch (IllegalAccessException e) {
-                e.printStackTrace();
-            }
+            super(property);
+
+            Object target = value();
             if (target != null)
-                mapper = new Mapper(target);
+                mapper = new Mapper(target, jedis);
+        }
+
+        @Override
+        public void pendingIds(Map<String, List<LongConsumer>> pending) {
+            if (mapper != null) {
+                mapper.pendingIds(pending);
+            }
         }
 
         @Override
         public void save() {
             if (mapper != null) {
-                mapper.save();
-                pipe.hset(id.getBytes(), attr.getBytes(),
-                        mapper.getId().getBytes());
+                mapper.write(pipe, stats);
+                if (mapper.getId().equals(reference)) {
+                    stats.skipped++;
+                } else {
+                    byte[] encoded = mapper.getId().getBytes();
+                    pipe.hset(id.getBytes(), attrBytes, encoded);
+                    written += encoded.length;
+                    reference = mapper.getId();
+                    stats.written++;
+                }
             }
         }
 
         @Override
         public void load() {
-            if (mapper != null) {
-                future = pipe.hget(id.getBytes(), attr.getBytes());
+            future = pipe.hget(id.getBytes(), attrBytes);
+        }
+
+        // the child id is known now, it is read with the next level of the graph
+        @Override
+        public void loadDependent() {
+            if (future != null) {
+                byte[] raw = (byte[]) future.get();
+                future = null;
+                reference = raw == null ? null : new String(raw);
             }
+            String childId = reference;
+            if (childId == null)
+                return;
+
+            Mapper shared = graph.identity.get(childId);
+            if (shared != null) {
+                mapper = shared;
+                value(shared.instance);
+                return;
+            }
+            if (graph.depth >= graph.maxDepth)
+                return;
+
+            Object target = mapper != null ? mapper.instance : property.newInstance();
+            mapper = new Mapper(target, jedis);
+            mapper.id = childId;
+            value(target);
+
+            graph.identity.put(childId, mapper);
+            graph.next.add(mapper);
         }
 
         @Override
         public void sync() {
-            String value = (String) value();
-            if (value != null) {
-                mapper.load(value);
-            }
+            if (caching != null)
+                caching[slot] = reference;
+        }
+
+        // the child is resolved in loadDependent as if it had been read
+        @Override
+        public void cached(Object raw) {
+            future = null;
+            reference = (String) raw;
+        }
+
+        // written again on save
+        @Override
+        public void lagging() {
+            reference = null;
         }
 
         @Override
         public void delete() {
             if (mapper != null) {
                 pipe.hdel(id, attr);
-                mapper.delete();
+                mapper.remove(pipe);
             }
         }
 
+        @Override
+        public void invalidated() {
+            if (mapper != null)
+                mapper.invalidated();
+        }
+
         @Override
         public void criteria(SearchCriteria searchCriteria) {
         }
     }
 
-    private interface PrimitiveFormatter<T> {
-        byte[] format(T value);
-        double score(T value);
-        T parse(String str);
-    }
+    private class PrimitiveMember extends Member<Object> {
 
-    private class IntegerFormatter implements PrimitiveFormatter<Integer> {
-        @Override
-        public byte[] format(Integer value) {
-            return new byte[]{value.byteValue()};
+        Codec<Object> codec;
+
+        /* value last seen in redis, or null if the field was empty. unchanged
+        values are not written again, and a changed one tells which
+        lexicographic or set index entry to remove. unusable until known */
+        String snapshot;
+        boolean known;
+        Response<byte[]> previousFuture;
+
+        // part of a composite index, which needs the old value whatever the index of the field
+        boolean composed;
+
+        public PrimitiveMember(Schema.Property property)
+        {
+            super(property);
+            this.codec = property.codec;
         }
 
         @Override
-        public double score(Integer value) {
-            return value;
+        public void created() {
+            snapshot = null;
+            known = true;
         }
 
         @Override
-        public Integer parse(String str) {
-            return Integer.parseInt(str);
+        public void loadPrevious() {
+            if (!known && ((property.indexed && property.index != Index.Type.SCORE) || composed))
+                previousFuture = pipe.hget(id.getBytes(), attrBytes);
         }
-    }
 
-    private class StringFormatter implements PrimitiveFormatter<String> {
         @Override
-        public byte[] format(String value) {
-            return value.getBytes();
+        public void syncPrevious() {
+            if (previousFuture != null) {
+                byte[] temp = previousFuture.get();
+                snapshot = temp == null ? null : Index.value(codec.decode(temp));
+                known = true;
+                previousFuture = null;
+            }
         }
 
         @Override
-        public double score(String value) {
-            return index.scoreStr(value);
+        public void save() {
+            Object t = value();
+            if (t != null) {
+                String current = Index.value(t);
+                if (known && current.equals(snapshot)) {
+                    stats.skipped++;
+                    return;
+                }
+                stats.written++;
+
+                byte[] encoded = codec.encode(t);
+                pipe.hset(id.getBytes(), attrBytes, encoded);
+                written += encoded.length;
+
+                switch (property.index) {
+                    case LEX:
+                        if (snapshot != null && !snapshot.equals(current))
+                            pipe.zrem(indexKey(), Index.lexMember(snapshot, id));
+                        pipe.zadd(indexKey(), 0, Index.lexMember(current, id));
+                        break;
+                    case SET:
+                        if (snapshot != null && !snapshot.equals(current))
+                            pipe.srem(Index.setKey(indexKey(), snapshot), id);
+                        pipe.sadd(Index.setKey(indexKey(), current), id);
+                        break;
+                    default:
+                        saveIndex(codec.score(t));
+                }
+                snapshot = current;
+                known = true;
+            }
         }
 
         @Override
-        public String parse(String str) {
-            return str;
+        public void load() {
+            future = pipe.hget(id.getBytes(), attrBytes);
         }
-    }
 
-    private class BooleanFormatter implements PrimitiveFormatter<Boolean> {
         @Override
-        public byte[] format(Boolean value) {
-            return new byte[]{toRed(value).byteValue()};
+        public void sync() {
+            if (future == null)
+                return;
+            byte[] temp = (byte[]) future.get();
+            future = null;
+            if (caching != null)
+                caching[slot] = temp;
+            apply(temp);
         }
 
+        // decoded from a copy, the cached bytes are shared by every hit
         @Override
-        public double score(Boolean value) {
-            return toRed(value);
+        public void cached(Object raw) {
+            future = null;
+            apply(raw == null ? null : ((byte[]) raw).clone());
+        }
+
+        private void apply(byte[] temp) {
+            snapshot = null;
+            if (temp != null) {
+                Object t = codec.decode(temp);
+                value(t);
+                snapshot = Index.value(t);
+            }
+            known = true;
         }
 
         @Override
-        public Boolean parse(String str) {
-            return fromRed(str);
+        public void lagging() {
+            known = false;
         }
 
-        private Integer toRed(Boolean val) {
-            if (val)
-                return 1;
-            else
-                return 0;
+        @Override
+        public void delete() {
+            pipe.hdel(id, attr);
+
+            // the stored value once known, see loadPrevious
+            String t = snapshot;
+            if (!known && value() != null)
+                t = Index.value(value());
+
+            switch (property.index) {
+                case LEX:
+                    if (t != null)
+                        pipe.zrem(indexKey(), Index.lexMember(t, id));
+                    break;
+                case SET:
+                    if (t != null)
+                        pipe.srem(Index.setKey(indexKey(), t), id);
+                    break;
+                default:
+                    deleteIndex();
+            }
+            snapshot = null;
         }
-        private Boolean fromRed(String val) {
-            int num = Integer.parseInt(val);
-            if (num == 1)
-                return true;
-            else
-                return false;
+
+        @Override
+        public void criteria(SearchCriteria searchCriteria) {
+            Object t = value();
+            if (t != null && property.indexed)
+                searchCriteria.equality(property, t);
         }
     }
 
-    private class PrimitiveMember<T> extends Member<T> {
+    /* entry of the object in a composite index, built from the values of
+    its fields as stored: the value just written or, for an empty field
+    that is left alone on save, the one read before */
+    private class CompositeMember extends Member<Object> {
 
-        PrimitiveFormatter<T> primitiveFormatter;
-        public PrimitiveMember(Field field, String attr, PrimitiveFormatter<T> primitiveFormatter)
-        {
-            super(field, attr);
-            this.primitiveFormatter = primitiveFormatter;
+        private final Schema.Composite composite;
+        private final List<PrimitiveMember> fields = new ArrayList<>();
+
+        // values of the entry in redis, null if there is none, unusable until known
+        private String snapshot;
+        private boolean known;
+
+        CompositeMember(Schema.Composite composite) {
+
+            this.composite = composite;
+            for (Schema.Property property : composite.properties) {
+                PrimitiveMember field = (PrimitiveMember) members.get(schema.getProperties().indexOf(property));
+                field.composed = true;
+                fields.add(field);
+            }
+        }
+
+        // null while a field has no value
+        private String stored() {
+            List<String> values = new ArrayList<>(fields.size());
+            for (PrimitiveMember field : fields) {
+                String value = field.known ? field.snapshot : null;
+                if (value == null && field.value() != null)
+                    value = Index.value(field.value());
+                if (value == null)
+                    return null;
+                values.add(value);
+            }
+            return Index.compositePrefix(values);
+        }
+
+        // the fields were just read or created, so is the entry
+        private void known() {
+            snapshot = stored();
+            known = true;
         }
 
         @Override
-        public void save() {
-            T t = value();
-            if (t != null) {
-                pipe.hset(id.getBytes(), attr.getBytes(),
-                        primitiveFormatter.format(t));
-                saveIndex(primitiveFormatter.score(t));
+        public void created() {
+            snapshot = null;
+            known = true;
+        }
+
+        @Override
+        public void syncPrevious() {
+            if (known)
+                return;
+            for (PrimitiveMember field : fields) {
+                if (!field.known)
+                    return;
             }
+            known();
+        }
+
+        @Override
+        public void save() {
+            String current = stored();
+            if (known && Objects.equals(current, snapshot))
+                return;
+            if (snapshot != null)
+                pipe.zrem(composite.indexKey, snapshot + id);
+            if (current != null)
+                pipe.zadd(composite.indexKey, 0, current + id);
+            snapshot = current;
+            known = true;
         }
 
         @Override
         public void load() {
-            future = pipe.hget(id, attr);
         }
 
         @Override
         public void sync() {
-            String temp = (String) future.get();
-            if (temp != null)
-                try {
-                    field.set(instance, primitiveFormatter.parse(temp));
-                } catch (IllegalAccessException e) {
-                    e.printStackTrace();
-                }
+            known();
+        }
+
+        @Override
+        public void cached(Object raw) {
+            known();
+        }
+
+        @Override
+        public void lagging() {
+            known = false;
         }
 
         @Override
         public void delete() {
-            pipe.hdel(id, attr);
-            deleteIndex();
+            String t = snapshot != null ? snapshot : stored();
+            if (t != null)
+                pipe.zrem(composite.indexKey, t + id);
+            snapshot = null;
         }
 
         @Override
         public void criteria(SearchCriteria searchCriteria) {
-            T t = value();
-            if (t != null) {
-                searchCriteria.addQualifer(indexKey(), primitiveFormatter.score(t));
-            }
         }
     }
 
-    private class PrimitiveListMember<T> extends Member<List<T>> {
+    private class PrimitiveListMember extends Member<List<Object>> {
 
         String memberId;
         Response<String> memberIdFuture;
+        Response<Long> lengthFuture;
+        Response<List<byte[]>> listFuture;
+        // the chunks after the first of a long list
+        List<Response<List<byte[]>>> restFutures;
+
+        // set when memberId was just reserved and there is no previous list to remove
+        boolean created;
 
-        PrimitiveFormatter<T> primitiveFormatter;
-        public PrimitiveListMember(Field field, String attr, PrimitiveFormatter<T> primitiveFormatter)
+        /* elements last seen in redis. an unchanged list is not written
+        again, one that only grew at the end gets just the new elements */
+        List<String> snapshot;
+        boolean known;
+
+        Codec<Object> codec;
+        public PrimitiveListMember(Schema.Property property)
         {
-            super(field, attr);
-            this.primitiveFormatter = primitiveFormatter;
+            super(property);
+            this.codec = property.codec;
         }
 
         private String subType() {
             return type + ":" + attr;
         }
 
+        @Override
+        public void pendingIds(Map<String, List<LongConsumer>> pending) {
+            // get new member id if there is none
+            if (memberId == null && value() != null) {
+                pending(pending, subType()).add(value -> {
+                    memberId = subType() + ":" + value;
+                    // on the node of the object, a new object is tagged once it has its id
+                    if (Pool.isSharded() && id != null)
+                        memberId = Shards.colocate(memberId, id);
+                    created = true;
+                    snapshot = null;
+                    known = true;
+                });
+            }
+        }
+
+        @Override
+        public void created() {
+            if (memberId != null && Pool.isSharded() && memberId.indexOf('{') < 0)
+                memberId = Shards.colocate(memberId, id);
+        }
+
         @Override
         public void save() {
-            List<T> value = value();
+            List<Object> value = value();
             if (value != null) {
 
-                // get new member id if there is none
-                if (memberId == null) {
-                    memberId = subType() + ":" + Long.toString(jedis.incr(subType()));
+                List<String> current = new ArrayList<>(value.size());
+                for (Object t: value) {
+                    current.add(Index.value(t));
+                }
+                if (known && current.equals(snapshot)) {
+                    stats.skipped++;
+                    return;
+                }
+                stats.written++;
+
+                if (known && snapshot != null && !created && current.size() > snapshot.size()
+                        && current.subList(0, snapshot.size()).equals(snapshot)) {
+
+                    // only appended to, the stored list and the reference stay
+                    push(value, snapshot.size());
+                    snapshot = current;
+                    return;
+                }
+                snapshot = current;
+
+                if (created) {
+                    created = false;
                 } else {
                     // remove pre existing list
                     pipe.del(memberId);
@@ -406,14 +1459,34 @@ public class Mapper {
                 }
 
                 // save reference to list
-                pipe.hset(id.getBytes(), attr.getBytes(), memberId.getBytes());
+                byte[] encoded = memberId.getBytes();
+                pipe.hset(id.getBytes(), attrBytes, encoded);
+                written += encoded.length;
 
                 // save the new list
-                for (T t: value) {
-                    pipe.lpush(memberId.getBytes(), primitiveFormatter.format(t));
-                    saveIndex(primitiveFormatter.score(t));
+                push(value, 0);
+            }
+        }
+
+        // append the elements from index from on, in order, LIST_CHUNK_SIZE per RPUSH
+        private void push(List<Object> value, int from) {
+
+            if (from >= value.size())
+                return;
+
+            byte[] key = memberId.getBytes();
+            for (int start = from; start < value.size(); start += LIST_CHUNK_SIZE) {
+
+                byte[][] chunk = new byte[Math.min(LIST_CHUNK_SIZE, value.size() - start)][];
+                for (int i = 0; i < chunk.length; i++) {
+                    chunk[i] = codec.encode(value.get(start + i));
+                    written += chunk[i].length;
                 }
+                pipe.rpush(key, chunk);
             }
+
+            // the index holds one score per id, so only the last element's would stay
+            saveIndex(codec.score(value.get(value.size() - 1)));
         }
 
         @Override
@@ -422,24 +1495,99 @@ public class Mapper {
         }
 
         @Override
-        public void sync() {
+        public void loadDependent() {
+            if (memberIdFuture == null)
+                return;
             memberId = memberIdFuture.get();
+            memberIdFuture = null;
+            lengthFuture = null;
+            listFuture = null;
+            restFutures = null;
 
             if (memberId != null) {
+                lengthFuture = pipe.llen(memberId.getBytes());
+                listFuture = pipe.lrange(memberId.getBytes(), 0, LIST_CHUNK_SIZE - 1);
+            }
+        }
 
-                List<String> temp = jedis.lrange(memberId, 0, -1);
+        @Override
+        public boolean partial() {
+            return listFuture != null && restFutures == null && lengthFuture.get() > listFuture.get().size();
+        }
 
-                if (temp != null) {
-                    List<T> tempConverted = new ArrayList<>();
-                    for (String str: temp) {
-                        tempConverted.add(primitiveFormatter.parse(str));
-                    }
-                    try {
-                        field.set(instance, tempConverted);
-                    } catch (IllegalAccessException e) {
-                        e.printStackTrace();
+        // long lists are read in chunks, all of them on the pipeline of the whole level
+        @Override
+        public void loadRest() {
+            restFutures = new ArrayList<>();
+            for (long start = listFuture.get().size(); start < lengthFuture.get(); start += LIST_CHUNK_SIZE) {
+                restFutures.add(pipe.lrange(memberId.getBytes(), start, start + LIST_CHUNK_SIZE - 1));
+            }
+        }
+
+        @Override
+        public void sync() {
+            if (listFuture != null) {
+
+                List<byte[]> temp = listFuture.get();
+                long length = lengthFuture.get();
+
+                List<Object> tempConverted = new ArrayList<>((int) length);
+                snapshot = new ArrayList<>((int) length);
+                decode(temp, tempConverted, false);
+
+                List<byte[]> raw = null;
+                if (caching != null) {
+                    raw = new ArrayList<>((int) length);
+                    raw.addAll(temp);
+                    caching[slot] = new Object[]{memberId, raw};
+                }
+
+                if (restFutures != null) {
+                    for (Response<List<byte[]>> chunk : restFutures) {
+                        decode(chunk.get(), tempConverted, false);
+                        if (raw != null)
+                            raw.addAll(chunk.get());
                     }
                 }
+
+                value(tempConverted);
+                known = true;
+                listFuture = null;
+                lengthFuture = null;
+                restFutures = null;
+            }
+        }
+
+        @Override
+        public void cached(Object raw) {
+            memberIdFuture = null;
+            memberId = null;
+            if (raw == null)
+                return;
+
+            Object[] entry = (Object[]) raw;
+            memberId = (String) entry[0];
+            @SuppressWarnings("unchecked")
+            List<byte[]> elements = (List<byte[]>) entry[1];
+
+            List<Object> tempConverted = new ArrayList<>(elements.size());
+            snapshot = new ArrayList<>(elements.size());
+            decode(elements, tempConverted, true);
+            value(tempConverted);
+            known = true;
+        }
+
+        @Override
+        public void lagging() {
+            known = false;
+        }
+
+        // copy decodes from copies of the bytes, for cached elements shared by every hit
+        private void decode(List<byte[]> elements, List<Object> into, boolean copy) {
+            for (byte[] bytes: elements) {
+                Object t = codec.decode(copy ? bytes.clone() : bytes);
+                into.add(t);
+                snapshot.add(Index.value(t));
             }
         }
 
@@ -452,74 +1600,592 @@ public class Mapper {
 
         @Override
         public void criteria(SearchCriteria searchCriteria) {
-            List<T> value = value();
-            if (value != null) {
-                for (T t: value) {
-                    searchCriteria.addQualifer(indexKey(), primitiveFormatter.score(t));
+            List<Object> value = value();
+            if (value != null && property.indexed) {
+                for (Object t: value) {
+                    searchCriteria.addQualifer(indexKey(), codec.score(t));
                 }
             }
         }
     }
 
-    public abstract static class Finder<T> {
+    // fields a save wrote and fields it skipped because they had not changed
+    public static class WriteStats {
+
+        private int written;
+        private int skipped;
+
+        public int getWritten() {
+            return written;
+        }
+
+        public int getSkipped() {
+            return skipped;
+        }
+
+        @Override
+        public String toString() {
+            return "written " + written + ", skipped " + skipped;
+        }
+    }
+
+    public abstract static class Finder<T> implements Iterable<T> {
+
+        // ids fetched and hydrated per round when streaming
+        public static final int DEFAULT_PAGE_SIZE = 100;
 
-        private Jedis jedis = Pool.getJedis();
         private SearchCriteria searchCriteria;
 
+        private int offset;
+        private int limit = -1;
+        private int pageSize = DEFAULT_PAGE_SIZE;
+        private Schema.Property sortBy;
+        private boolean descending;
+        private String cursor;
+
+        // class of the objects found, for the listener
+        private Class<?> model;
+
+        // the qualifiers matched, see SearchCriteria.plan
+        private List<SearchCriteria.Qualifer> plan;
+
         public Finder(SearchCriteria searchCriteria) {
             this.searchCriteria = searchCriteria;
         }
 
         public abstract T newInstance();
 
-        private Set<String> matchindIds(SearchCriteria.Qualifer qualifer) {
-            return jedis.zrangeByScore(qualifer.indexKey, qualifer.score, qualifer.score);
+
+        // skip the first matches
+        public Finder<T> offset(int offset) {
+            this.offset = offset;
+            return this;
         }
 
-        private ArrayList<String> retrieveIds() {
-            ArrayList<String> ids = new ArrayList<>();
+        // return at most this many matches, negative for all of them
+        public Finder<T> limit(int limit) {
+            this.limit = limit;
+            return this;
+        }
 
-            HashMap<String, Integer> idOccurances = new HashMap<>();
+        public Finder<T> pageSize(int pageSize) {
+            if (pageSize < 1)
+                throw new IllegalArgumentException("page size must be positive");
+            this.pageSize = pageSize;
+            return this;
+        }
 
+        // order matches by the index of a mapped field instead of by id
+        public Finder<T> sortBy(String attr) {
+            return sortBy(attr, false);
+        }
 
-            for(SearchCriteria.Qualifer qualifer: searchCriteria.getQualifiers()) {
+        public Finder<T> sortBy(String attr, boolean descending) {
+            Schema.Property property = Schema.of(newInstance().getClass()).getProperty(attr);
+            if (property == null || !property.indexed)
+                throw new IllegalArgumentException("no index for " + attr);
+            if (property.index == Index.Type.SET)
+                throw new IllegalArgumentException(attr + " has an unordered index");
+            this.sortBy = property;
+            this.descending = descending;
+            return this;
+        }
 
-                for (String id: matchindIds(qualifer)) {
-                    int previousOccurances = 0;
-                    if (idOccurances.containsKey(id)) {
-                        previousOccurances = idOccurances.get(id);
-                    }
-                    idOccurances.put(id, ++previousOccurances);
+        // continue after a page returned earlier by page()
+        public Finder<T> after(String cursor) {
+            this.cursor = cursor;
+            return this;
+        }
+
+
+        // entries one call of the match script examines at most
+        static final int EXAMINE = 2000;
+
+        /* walk a driving index and check every id against all qualifiers
+        inside redis, so only matching ids come back over the wire. without
+        a sort order the driver is the most selective qualifier (by ZCOUNT,
+        ZLEXCOUNT or SCARD). an equality set is walked with SSCAN, a batch
+        at a time in id order, and the other sets are checked with SISMEMBER,
+        so a page costs a batch of the smallest set and not the whole
+        intersection.
+
+        the first element returned is where to resume, empty once the driver
+        is exhausted, the second what is left of the skip. a position is the
+        driver's qualifier number and the last entry stepped on: its score
+        and id, its lexicographic member or its SSCAN cursor and id. it
+        stays valid while entries ahead of it come and go. a call examines
+        at most EXAMINE entries, so a selective filter over a long sort
+        order returns what it found with a position instead of holding
+        redis up until the page is full.
+
+        lexicographic members are "value\0id"; candidates found through them
+        are checked against the hash, so a stale entry never matches. a
+        composite qualifier is a prefix of members "value\0value\0id", its
+        values are codec output the script cannot compare with the hash, so
+        it is checked by looking up the member the id would have */
+        private static final Script MATCH = new Script(
+                "local n = tonumber(ARGV[1])\n" +
+                "local q = {}\n" +
+                "for i = 1, #KEYS do\n" +
+                "  local a = 4 * (i - 1) + 2\n" +
+                "  q[i] = {key = KEYS[i], kind = ARGV[a], min = ARGV[a + 1], max = ARGV[a + 2], attr = ARGV[a + 3]}\n" +
+                "end\n" +
+                "local a = 4 * #KEYS + 2\n" +
+                "local token, skip, count = ARGV[a], tonumber(ARGV[a + 1]), tonumber(ARGV[a + 2])\n" +
+                "local reverse = ARGV[a + 3] == '1'\n" +
+                "\n" +
+                "local function lex(r) return r.kind ~= 'SCORE' and r.kind ~= 'SET' end\n" +
+                "local function bounds(r)\n" +
+                "  if r.kind == 'SCORE' then return r.min, r.max end\n" +
+                "  if r.kind == 'EQUAL' then return '[' .. r.min .. '\\0', '(' .. r.min .. '\\1' end\n" +
+                "  if r.kind == 'PREFIX' or r.kind == 'COMPOSITE' then return '[' .. r.min, '(' .. r.min .. '\\255' end\n" +
+                "  local min, max = '-', '+'\n" +
+                "  if r.min ~= '' then min = '[' .. r.min .. '\\0' end\n" +
+                "  if r.max ~= '' then max = '(' .. r.max .. '\\1' end\n" +
+                "  return min, max\n" +
+                "end\n" +
+                "local function size(r)\n" +
+                "  if r.kind == 'SET' then return redis.call('SCARD', r.key) end\n" +
+                "  local min, max = bounds(r)\n" +
+                "  if lex(r) then return redis.call('ZLEXCOUNT', r.key, min, max) end\n" +
+                "  return redis.call('ZCOUNT', r.key, min, max)\n" +
+                "end\n" +
+                "-- byte order like ZRANGEBYLEX, lua compares strings by locale\n" +
+                "local function before(x, y)\n" +
+                "  for i = 1, math.min(#x, #y) do\n" +
+                "    local bx, by = string.byte(x, i), string.byte(y, i)\n" +
+                "    if bx ~= by then return bx < by end\n" +
+                "  end\n" +
+                "  return #x <= #y\n" +
+                "end\n" +
+                "local function check(r, id)\n" +
+                "  if r.kind == 'SET' then return redis.call('SISMEMBER', r.key, id) == 1 end\n" +
+                "  if r.kind == 'COMPOSITE' then return redis.call('ZSCORE', r.key, r.min .. id) ~= false end\n" +
+                "  if r.kind == 'SCORE' then\n" +
+                "    local score = redis.call('ZSCORE', r.key, id)\n" +
+                "    if not score then return false end\n" +
+                "    score = tonumber(score)\n" +
+                "    return score >= tonumber(r.min) and score <= tonumber(r.max)\n" +
+                "  end\n" +
+                "  local value = redis.call('HGET', id, r.attr)\n" +
+                "  if not value then return false end\n" +
+                "  if r.kind == 'EQUAL' then return value == r.min end\n" +
+                "  if r.kind == 'PREFIX' then return string.sub(value, 1, #r.min) == r.min end\n" +
+                "  return (r.min == '' or before(r.min, value)) and (r.max == '' or before(value, r.max))\n" +
+                "end\n" +
+                "\n" +
+                "local pick, at\n" +
+                "if token ~= '' then\n" +
+                "  local colon = string.find(token, ':', 1, true)\n" +
+                "  pick, at = tonumber(string.sub(token, 1, colon - 1)), string.sub(token, colon + 1)\n" +
+                "elseif q[n + 1] then\n" +
+                "  pick = n + 1\n" +
+                "else\n" +
+                "  if n == 0 then return {'', tostring(skip)} end\n" +
+                "  local best = -1\n" +
+                "  for i = 1, n do\n" +
+                "    local c = size(q[i])\n" +
+                "    if c == 0 then return {'', tostring(skip)} end\n" +
+                "    if best < 0 or c < best then best, pick = c, i end\n" +
+                "  end\n" +
+                "end\n" +
+                "local driver, checked = q[pick], {}\n" +
+                "if not lex(driver) or driver.kind == 'COMPOSITE' then checked[pick] = true end\n" +
+                "\n" +
+                "local found, examined = {}, 0\n" +
+                "-- true once the page is full or the call examined its share of entries\n" +
+                "local function step(id, seen)\n" +
+                "  if not seen then\n" +
+                "    examined = examined + 1\n" +
+                "    local match = true\n" +
+                "    for i = 1, n do\n" +
+                "      if not checked[i] and not check(q[i], id) then match = false break end\n" +
+                "    end\n" +
+                "    if match then\n" +
+                "      if skip > 0 then skip = skip - 1 else found[#found + 1] = id end\n" +
+                "    end\n" +
+                "  end\n" +
+                "  return (count >= 0 and #found == count) or examined >= " + EXAMINE + "\n" +
+                "end\n" +
+                "\n" +
+                "local function bound(s)\n" +
+                "  if s == '-inf' then return -math.huge end\n" +
+                "  if s == '+inf' or s == 'inf' then return math.huge end\n" +
+                "  return tonumber(s)\n" +
+                "end\n" +
+                "-- each walk returns the position after the last entry it stepped on, nil once the driver is exhausted\n" +
+                "-- walked by rank from the last entry, which keeps its place whatever is added before it\n" +
+                "local function scores(r, at)\n" +
+                "  local rank\n" +
+                "  if not at then\n" +
+                "    if reverse then rank = redis.call('ZCOUNT', r.key, '(' .. r.max, '+inf')\n" +
+                "    else rank = redis.call('ZCOUNT', r.key, '-inf', '(' .. r.min) end\n" +
+                "  else\n" +
+                "    local space = string.find(at, ' ', 1, true)\n" +
+                "    local last, member = string.sub(at, 1, space - 1), string.sub(at, space + 1)\n" +
+                "    local score = redis.call('ZSCORE', r.key, member)\n" +
+                "    if score and tonumber(score) == tonumber(last) then\n" +
+                "      if reverse then rank = redis.call('ZREVRANK', r.key, member) + 1\n" +
+                "      else rank = redis.call('ZRANK', r.key, member) + 1 end\n" +
+                "    else\n" +
+                "      -- the last entry is gone, count the entries that sorted before it\n" +
+                "      if reverse then rank = redis.call('ZCOUNT', r.key, '(' .. last, '+inf')\n" +
+                "      else rank = redis.call('ZCOUNT', r.key, '-inf', '(' .. last) end\n" +
+                "      local off = 0\n" +
+                "      while true do\n" +
+                "        local same\n" +
+                "        if reverse then same = redis.call('ZREVRANGEBYSCORE', r.key, last, last, 'LIMIT', off, 500)\n" +
+                "        else same = redis.call('ZRANGEBYSCORE', r.key, last, last, 'LIMIT', off, 500) end\n" +
+                "        local k = 0\n" +
+                "        for _, id in ipairs(same) do\n" +
+                "          if (reverse and not before(member, id)) or (not reverse and not before(id, member)) then break end\n" +
+                "          k = k + 1\n" +
+                "        end\n" +
+                "        rank, off = rank + k, off + k\n" +
+                "        if k < 500 then break end\n" +
+                "      end\n" +
+                "    end\n" +
+                "  end\n" +
+                "  local min, max = bound(r.min), bound(r.max)\n" +
+                "  while true do\n" +
+                "    local chunk\n" +
+                "    if reverse then chunk = redis.call('ZREVRANGE', r.key, rank, rank + 499, 'WITHSCORES')\n" +
+                "    else chunk = redis.call('ZRANGE', r.key, rank, rank + 499, 'WITHSCORES') end\n" +
+                "    if #chunk == 0 then return nil end\n" +
+                "    rank = rank + #chunk / 2\n" +
+                "    for i = 1, #chunk, 2 do\n" +
+                "      local id, score = chunk[i], tonumber(chunk[i + 1])\n" +
+                "      if score < min or score > max then return nil end\n" +
+                "      if step(id, false) then return chunk[i + 1] .. ' ' .. id end\n" +
+                "    end\n" +
+                "  end\n" +
+                "end\n" +
+                "local function members(r, at)\n" +
+                "  local min, max = bounds(r)\n" +
+                "  if at then\n" +
+                "    if reverse then max = '(' .. at else min = '(' .. at end\n" +
+                "  end\n" +
+                "  local off = 0\n" +
+                "  while true do\n" +
+                "    local chunk\n" +
+                "    if reverse then chunk = redis.call('ZREVRANGEBYLEX', r.key, max, min, 'LIMIT', off, 500)\n" +
+                "    else chunk = redis.call('ZRANGEBYLEX', r.key, min, max, 'LIMIT', off, 500) end\n" +
+                "    if #chunk == 0 then return nil end\n" +
+                "    off = off + #chunk\n" +
+                "    for _, m in ipairs(chunk) do\n" +
+                "      local id\n" +
+                "      if r.kind == 'COMPOSITE' then id = string.sub(m, #r.min + 1)\n" +
+                "      else id = string.sub(m, string.find(m, '\\0', 1, true) + 1) end\n" +
+                "      if step(id, false) then return m end\n" +
+                "    end\n" +
+                "  end\n" +
+                "end\n" +
+                "-- a batch of the set per SSCAN cursor, sorted. SSCAN can return an id twice while the set is resized\n" +
+                "local function sets(r, at)\n" +
+                "  local cursor, last = '0', nil\n" +
+                "  if at then\n" +
+                "    local space = string.find(at, ' ', 1, true)\n" +
+                "    cursor, last = string.sub(at, 1, space - 1), string.sub(at, space + 1)\n" +
+                "  end\n" +
+                "  while true do\n" +
+                "    local batch = redis.call('SSCAN', r.key, cursor, 'COUNT', 500)\n" +
+                "    local ids = batch[2]\n" +
+                "    table.sort(ids, function(x, y) return x ~= y and before(x, y) end)\n" +
+                "    for _, id in ipairs(ids) do\n" +
+                "      if step(id, last ~= nil and before(id, last)) then return cursor .. ' ' .. id end\n" +
+                "    end\n" +
+                "    cursor, last = batch[1], nil\n" +
+                "    if cursor == '0' then return nil end\n" +
+                "  end\n" +
+                "end\n" +
+                "\n" +
+                "local walk = members\n" +
+                "if driver.kind == 'SET' then walk = sets elseif not lex(driver) then walk = scores end\n" +
+                "at = walk(driver, at)\n" +
+                "local reply = {at and (pick .. ':' .. at) or '', tostring(skip)}\n" +
+                "for _, id in ipairs(found) do reply[#reply + 1] = id end\n" +
+                "return reply\n", LocalMatch::run);
+
+        // one window of matching ids, the driver position after it and the skip left over
+        private static class Window {
+            List<String> ids;
+            String next;
+            int skip;
+        }
+
+        private Window match(Jedis jedis, String start, int skip, int count) {
+
+            ArrayList<String> keys = new ArrayList<>();
+            ArrayList<String> args = new ArrayList<>();
+
+            List<SearchCriteria.Qualifer> qualifers = plan;
+            args.add(Integer.toString(qualifers.size()));
+            for (SearchCriteria.Qualifer qualifer: qualifers) {
+                keys.add(qualifer.indexKey);
+                args.add(qualifer.kind.name());
+                args.add(qualifer.min);
+                args.add(qualifer.max == null ? "" : qualifer.max);
+                args.add(qualifer.attr == null ? "" : qualifer.attr);
+            }
+
+            // the sort order drives the scan over its whole index
+            if (sortBy != null) {
+                keys.add(sortBy.indexKey);
+                if (sortBy.index == Index.Type.LEX)
+                    args.addAll(Arrays.asList(SearchCriteria.Kind.RANGE.name(), "", "", sortBy.attr));
+                else
+                    args.addAll(Arrays.asList(SearchCriteria.Kind.SCORE.name(), "-inf", "+inf", sortBy.attr));
+            }
+            args.add(start);
+            args.add(Integer.toString(skip));
+            args.add(Integer.toString(count));
+            args.add(descending ? "1" : "0");
+
+            @SuppressWarnings("unchecked")
+            List<String> result = (List<String>) MATCH.eval(jedis, keys, args);
+
+            Window window = new Window();
+            window.next = result.get(0).isEmpty() ? null : result.get(0);
+            window.skip = Integer.parseInt(result.get(1));
+            window.ids = result.subList(2, result.size());
+
+            RedListener listen = listener;
+            if (listen != null)
+                listen.matched(model(), window.ids.size());
+            return window;
+        }
+
+        /* up to count matches from the nodes in turn, each resumed where next
+        says and left where it stopped, null once exhausted. a node is asked
+        again as long as its script calls stop at EXAMINE entries */
+        private Window scan(List<Jedis> nodes, String[] next, int skip, int count) {
+
+            if (sortBy != null && nodes.size() > 1)
+                throw new UnsupportedOperationException("sorted pages across shards, use find()");
+
+            Window window = new Window();
+            window.ids = new ArrayList<>();
+            window.skip = skip;
+            int i = 0;
+            while (i < nodes.size() && (count < 0 || window.ids.size() < count)) {
+                if (next[i] == null) {
+                    i++;
+                    continue;
+                }
+                Window part = match(nodes.get(i), next[i], window.skip,
+                        count < 0 ? count : count - window.ids.size());
+                next[i] = part.next;
+                window.skip = part.skip;
+                window.ids.addAll(part.ids);
+            }
+            return window;
+        }
+
+        /* every node is asked at once for the first offset + limit matches,
+        the results are merged, in sort order when there is one */
+        private List<T> gather(Jedis jedis, List<Jedis> nodes, String[] start) {
+
+            int count = limit < 0 ? -1 : offset + limit;
+            List<String> ids = new ArrayList<>();
+            for (List<String> part : ShardedConnection.scatter(nodes.size(), i ->
+                    scan(Collections.singletonList(nodes.get(i)), new String[]{start[i]}, 0, count).ids)) {
+                ids.addAll(part);
+            }
+
+            List<T> objects = hydrate(jedis, ids);
+            if (sortBy != null)
+                objects.sort(order());
+
+            int from = Math.min(offset, objects.size());
+            int to = limit < 0 ? objects.size() : Math.min(objects.size(), from + limit);
+            return objects.subList(from, to);
+        }
+
+        private Comparator<T> order() {
+
+            Comparator<T> order = sortBy.index == Index.Type.LEX
+                    ? Comparator.comparing(t -> Index.value(sortBy.accessor.get(t)))
+                    : Comparator.comparingDouble(t -> sortBy.codec.score(sortBy.accessor.get(t)));
+            return descending ? order.reversed() : order;
+        }
+
+        /* positions to resume every node from, a sharded cursor holds one per
+        node: base64 of the script's position, - for an exhausted node */
+        private String[] start(int nodes) {
+
+            String[] start = new String[nodes];
+            Arrays.fill(start, "");
+            if (cursor == null)
+                return start;
+
+            String[] positions = cursor.split("\\.", -1);
+            if (positions.length != nodes)
+                throw new IllegalArgumentException("cursor " + cursor + " is not for " + nodes + " nodes");
+            for (int i = 0; i < nodes; i++) {
+                start[i] = positions[i].equals("-") ? null
+                        : new String(Base64.getUrlDecoder().decode(positions[i]), StandardCharsets.UTF_8);
+            }
+            return start;
+        }
+
+        // null once every node is exhausted
+        private static String cursor(String[] next) {
+
+            StringBuilder cursor = new StringBuilder();
+            for (int i = 0; i < next.length; i++) {
+                if (i > 0)
+                    cursor.append('.');
+                cursor.append(next[i] == null ? "-" : Base64.getUrlEncoder().withoutPadding()
+                        .encodeToString(next[i].getBytes(StandardCharsets.UTF_8)));
+            }
+            return more(next) ? cursor.toString() : null;
+        }
+
+        private static boolean more(String[] next) {
+            for (String position : next) {
+                if (position != null)
+                    return true;
+            }
+            return false;
+        }
+
+        // one round of reads on a borrowed connection, timed as a FIND when there is a listener
+        private <R> R round(Function<Jedis, R> operation) {
+
+            RedListener listen = listener;
+            if (listen == null)
+                return withReadJedis(operation);
+
+            long start = System.nanoTime();
+            boolean failed = true;
+            try {
+                R result = withReadJedis(operation);
+                failed = false;
+                return result;
+            } finally {
+                listen.operation(RedListener.Operation.FIND, model(), System.nanoTime() - start, failed);
+            }
+        }
+
+        // the qualifiers to match, planned on the first read
+        private void plan(Jedis jedis) {
+            if (plan == null) {
+                Schema schema = Schema.of(model());
+                plan = searchCriteria.plan(schema, Index.builtComposites(jedis, schema));
+            }
+        }
+
+        private Class<?> model() {
+            if (model == null)
+                model = newInstance().getClass();
+            return model;
+        }
+
+        // the instances come from newInstance, so they are T
+        @SuppressWarnings("unchecked")
+        private List<T> hydrate(Jedis jedis, List<String> ids) {
+            List<T> objects = new ArrayList<>(ids.size());
+            for (List<Mapper> batch : readAll(jedis, ids, this::newInstance, DEFAULT_BATCH_SIZE)) {
+                for (Mapper mapper : batch) {
+                    objects.add((T) mapper.instance);
                 }
             }
+            return objects;
+        }
 
-            int numOfQualifers = searchCriteria.getQualifiers().size();
 
-            idOccurances.forEach(new BiConsumer<String, Integer>() {
+        /* hydrate every match on one borrowed connection, two pipelines per
+        batch. shards are queried in parallel, replicas are preferred */
+        public ArrayList<T> find() {
+            return round(jedis -> {
+                plan(jedis);
+                List<Jedis> nodes = ShardedConnection.nodes(jedis);
+                String[] start = start(nodes.size());
+                if (nodes.size() > 1)
+                    return new ArrayList<>(gather(jedis, nodes, start));
+                return new ArrayList<>(hydrate(jedis, scan(nodes, start, offset, limit).ids));
+            });
+        }
+
+        // find() on the asynchronous executor, see Mapper.setExecutor
+        public CompletableFuture<ArrayList<T>> findAsync() {
+            return CompletableFuture.supplyAsync(this::find, executor());
+        }
+
+        // one page of at most limit (or page size) matches, with a cursor for the next one
+        public Page<T> page() {
+            return round(jedis -> {
+                plan(jedis);
+                List<Jedis> nodes = ShardedConnection.nodes(jedis);
+                String[] next = start(nodes.size());
+                Window window = scan(nodes, next, offset, limit < 0 ? pageSize : limit);
+                return new Page<>(hydrate(jedis, window.ids), cursor(next));
+            });
+        }
+
+        // fetch and hydrate matches one page at a time, a connection is only held while a page is read
+        @Override
+        public Iterator<T> iterator() {
+            return new Iterator<T>() {
+
+                // positions per node, known once the first page is read
+                private String[] next;
+                private int skip = offset;
+                private int remaining = limit;
+                private Iterator<T> page = Collections.emptyIterator();
+
                 @Override
-                public void accept(String s, Integer integer) {
-                    if (integer == numOfQualifers) {
-                        ids.add(s);
+                public boolean hasNext() {
+                    while (!page.hasNext() && (next == null || more(next)) && remaining != 0) {
+                        int count = remaining < 0 ? pageSize : Math.min(pageSize, remaining);
+                        page = round(jedis -> {
+                            plan(jedis);
+                            List<Jedis> nodes = ShardedConnection.nodes(jedis);
+                            if (next == null)
+                                next = start(nodes.size());
+                            Window window = scan(nodes, next, skip, count);
+                            skip = window.skip;
+                            if (remaining > 0)
+                                remaining -= window.ids.size();
+                            return hydrate(jedis, window.ids).iterator();
+                        });
                     }
+                    return page.hasNext();
                 }
-            });
 
-            return ids;
+                @Override
+                public T next() {
+                    if (!hasNext())
+                        throw new NoSuchElementException();
+                    return page.next();
+                }
+            };
         }
 
-        private T load(String id) {
-            T t = newInstance();
-            Mapper mapper = new Mapper(t, id);
-            mapper.load();
-            return t;
+        public Stream<T> stream() {
+            return StreamSupport.stream(Spliterators.spliteratorUnknownSize(
+                    iterator(), Spliterator.ORDERED | Spliterator.NONNULL), false);
         }
 
-        public ArrayList<T> find() {
-            ArrayList<T> tArrayList = new ArrayList<>();
-            for (String id: retrieveIds()) {
-                tArrayList.add(load(id));
+
+        public static class Page<T> {
+
+            private final List<T> items;
+            private final String cursor;
+
+            Page(List<T> items, String cursor) {
+                this.items = items;
+                this.cursor = cursor;
+            }
+
+            public List<T> getItems() {
+                return items;
+            }
+
+            // pass to Finder.after() for the next page, null on the last page
+            public String getCursor() {
+                return cursor;
             }
-            return tArrayList;
         }
     }
 
@@ -0,0 +1,463 @@
+package com.nosqlcode.redjava;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.NavigableSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Supplier;
+import java.util.function.ToLongFunction;
+
+/**
+ * In-process store with the semantics of a single redis server, for
+ * embedded use, tests and benchmarks without one:
+ *
+ * <pre>
+ * Pool.connectLocal(new MemoryStore());
+ * </pre>
+ *
+ * Keys live in one ConcurrentHashMap. Writes to a key run inside its
+ * compute, so writes to one key are serialized by the map's own striped
+ * locks and writes to different keys run in parallel. Reads take no lock:
+ * hashes are concurrent maps, lists are copy on write, sets are a skip
+ * list of their members and sorted sets a skip list ordered by score, then
+ * member. Ranges walk the skip lists in place.
+ *
+ * Members compare by code point, which is the byte order of their UTF-8
+ * form, the order redis uses.
+ */
+
+public class MemoryStore implements Store {
+
+
+    private final ConcurrentHashMap<String, Object> keys = new ConcurrentHashMap<>();
+
+
+    @Override
+    public byte[] hget(String key, String field) {
+        ConcurrentHashMap<String, byte[]> hash = read(key, ConcurrentHashMap.class);
+        return hash == null ? null : hash.get(field);
+    }
+
+    @Override
+    public long hset(String key, String field, byte[] value) {
+        return write(key, ConcurrentHashMap.class, ConcurrentHashMap::new,
+                hash -> hash.put(field, value) == null ? 1 : 0);
+    }
+
+    @Override
+    public long hdel(String key, String... fields) {
+        return write(key, ConcurrentHashMap.class, ConcurrentHashMap::new, hash -> {
+            long removed = 0;
+            for (String field : fields) {
+                if (hash.remove(field) != null)
+                    removed++;
+            }
+            return removed;
+        });
+    }
+
+
+    @Override
+    public long rpush(String key, byte[]... values) {
+        return write(key, CopyOnWriteArrayList.class, CopyOnWriteArrayList::new, list -> {
+            list.addAll(Arrays.asList(values));
+            return list.size();
+        });
+    }
+
+    @Override
+    public long llen(String key) {
+        List<byte[]> list = read(key, CopyOnWriteArrayList.class);
+        return list == null ? 0 : list.size();
+    }
+
+    @Override
+    public List<byte[]> lrange(String key, long start, long end) {
+
+        List<byte[]> list = read(key, CopyOnWriteArrayList.class);
+        if (list == null)
+            return new ArrayList<>();
+        // one snapshot, a concurrent push must not shift the range
+        Object[] elements = list.toArray();
+        List<byte[]> range = new ArrayList<>();
+        for (int i : ranks(elements.length, start, end)) {
+            range.add((byte[]) elements[i]);
+        }
+        return range;
+    }
+
+
+    @Override
+    public long sadd(String key, String... members) {
+        return write(key, Members.class, Members::new, set -> {
+            long added = 0;
+            for (String member : members) {
+                added += set.add(member);
+            }
+            return added;
+        });
+    }
+
+    @Override
+    public long srem(String key, String... members) {
+        return write(key, Members.class, Members::new, set -> {
+            long removed = 0;
+            for (String member : members) {
+                removed += set.remove(member);
+            }
+            return removed;
+        });
+    }
+
+    @Override
+    public boolean sismember(String key, String member) {
+        Members set = read(key, Members.class);
+        return set != null && set.order.contains(member);
+    }
+
+    @Override
+    public long scard(String key) {
+        Members set = read(key, Members.class);
+        return set == null ? 0 : set.size;
+    }
+
+    // walks the smallest set and looks the others up
+    @Override
+    public Set<String> sinter(String... keys) {
+
+        List<Members> sets = new ArrayList<>(keys.length);
+        for (String key : keys) {
+            Members set = read(key, Members.class);
+            if (set == null)
+                return new LinkedHashSet<>();
+            sets.add(set);
+        }
+        sets.sort((a, b) -> Integer.compare(a.size, b.size));
+
+        Set<String> common = new LinkedHashSet<>();
+        for (String member : sets.get(0).order) {
+            boolean all = true;
+            for (int i = 1; i < sets.size() && all; i++) {
+                all = sets.get(i).order.contains(member);
+            }
+            if (all)
+                common.add(member);
+        }
+        return common;
+    }
+
+    @Override
+    public List<String> sscan(String key, String after, int count) {
+
+        Members set = read(key, Members.class);
+        if (set == null)
+            return new ArrayList<>();
+        List<String> members = new ArrayList<>(count);
+        for (String member : after == null ? set.order : set.order.tailSet(after, false)) {
+            if (members.size() == count)
+                break;
+            members.add(member);
+        }
+        return members;
+    }
+
+
+    @Override
+    public long zadd(String key, double score, String member) {
+        return write(key, SortedSet.class, SortedSet::new, set -> set.add(score, member));
+    }
+
+    @Override
+    public long zrem(String key, String... members) {
+        return write(key, SortedSet.class, SortedSet::new, set -> {
+            long removed = 0;
+            for (String member : members) {
+                removed += set.remove(member);
+            }
+            return removed;
+        });
+    }
+
+    @Override
+    public Double zscore(String key, String member) {
+        SortedSet set = read(key, SortedSet.class);
+        return set == null ? null : set.scores.get(member);
+    }
+
+    @Override
+    public List<String> zrange(String key, long start, long end) {
+
+        SortedSet set = read(key, SortedSet.class);
+        if (set == null)
+            return new ArrayList<>();
+        // the member count stands in for the length of the skip list, which takes a walk to size
+        int[] ranks = ranks(set.scores.size(), start, end);
+        return ranks.length == 0 ? new ArrayList<>() : take(set.order, ranks[0], ranks.length, false);
+    }
+
+    @Override
+    public long zcount(String key, double min, double max) {
+        NavigableSet<Member> range = byScore(key, min, max);
+        return range == null ? 0 : range.size();
+    }
+
+    @Override
+    public List<String> zrangeByScore(String key, double min, double max, int offset, int count, boolean reverse) {
+        NavigableSet<Member> range = byScore(key, min, max);
+        return range == null ? new ArrayList<>() : take(range, offset, count, reverse);
+    }
+
+    @Override
+    public long zlexcount(String key, String min, String max) {
+        NavigableSet<Member> range = byLex(key, min, max);
+        return range == null ? 0 : range.size();
+    }
+
+    @Override
+    public List<String> zrangeByLex(String key, String min, String max, int offset, int count, boolean reverse) {
+        NavigableSet<Member> range = byLex(key, min, max);
+        return range == null ? new ArrayList<>() : take(range, offset, count, reverse);
+    }
+
+
+    @Override
+    public long incrBy(String key, long increment) {
+        long[] value = new long[1];
+        keys.compute(key, (k, current) -> {
+            if (current != null && !(current instanceof Long))
+                throw wrongType(k);
+            value[0] = (current == null ? 0 : (Long) current) + increment;
+            return value[0];
+        });
+        return value[0];
+    }
+
+    @Override
+    public long del(String... keys) {
+        long removed = 0;
+        for (String key : keys) {
+            if (this.keys.remove(key) != null)
+                removed++;
+        }
+        return removed;
+    }
+
+    @Override
+    public void flushAll() {
+        keys.clear();
+    }
+
+    // number of keys, like DBSIZE
+    public int size() {
+        return keys.size();
+    }
+
+
+    // type is the class of V, checked before the cast
+    @SuppressWarnings("unchecked")
+    private <V> V read(String key, Class<?> type) {
+
+        Object value = keys.get(key);
+        if (value != null && !type.isInstance(value))
+            throw wrongType(key);
+        return (V) value;
+    }
+
+    /* change the value of key under the lock of its map bin. a missing key
+    starts out empty, one left empty is removed, like redis does */
+    @SuppressWarnings("unchecked")
+    private <V> long write(String key, Class<?> type, Supplier<V> create, ToLongFunction<V> change) {
+
+        long[] result = new long[1];
+        keys.compute(key, (k, current) -> {
+            if (current != null && !type.isInstance(current))
+                throw wrongType(k);
+            V value = current == null ? create.get() : (V) current;
+            result[0] = change.applyAsLong(value);
+            return empty(value) ? null : value;
+        });
+        return result[0];
+    }
+
+    private static boolean empty(Object value) {
+        if (value instanceof SortedSet)
+            return ((SortedSet) value).scores.isEmpty();
+        if (value instanceof Members)
+            return ((Members) value).size == 0;
+        if (value instanceof ConcurrentHashMap)
+            return ((ConcurrentHashMap) value).isEmpty();
+        return ((java.util.Collection) value).isEmpty();
+    }
+
+    private static IllegalStateException wrongType(String key) {
+        return new IllegalStateException("WRONGTYPE Operation against a key holding the wrong kind of value: " + key);
+    }
+
+    // positions start to end of a sequence of size, both inclusive, negative ones count from the end
+    private static int[] ranks(int size, long start, long end) {
+
+        if (start < 0)
+            start = Math.max(0, size + start);
+        if (end < 0)
+            end = size + end;
+        end = Math.min(end, size - 1);
+        if (start > end)
+            return new int[0];
+
+        int[] ranks = new int[(int) (end - start + 1)];
+        for (int i = 0; i < ranks.length; i++) {
+            ranks[i] = (int) start + i;
+        }
+        return ranks;
+    }
+
+    private static List<String> take(NavigableSet<Member> range, int offset, int count, boolean reverse) {
+
+        List<String> members = new ArrayList<>(count < 0 ? 16 : count);
+        Iterator<Member> walk = reverse ? range.descendingIterator() : range.iterator();
+        for (int skipped = 0; skipped < offset && walk.hasNext(); skipped++) {
+            walk.next();
+        }
+        while (walk.hasNext() && (count < 0 || members.size() < count)) {
+            members.add(walk.next().member);
+        }
+        return members;
+    }
+
+    private NavigableSet<Member> byScore(String key, double min, double max) {
+
+        SortedSet set = read(key, SortedSet.class);
+        if (set == null || min > max)
+            return null;
+        return set.order.subSet(new Member(min, null, -1), true, new Member(max, null, 1), true);
+    }
+
+    // lexicographic ranges assume one score for all members, as in redis
+    private NavigableSet<Member> byLex(String key, String min, String max) {
+
+        SortedSet set = read(key, SortedSet.class);
+        if (set == null || set.order.isEmpty())
+            return null;
+        double score = set.order.first().score;
+
+        Member from = bound(min, score);
+        Member to = bound(max, score);
+        if (from.compareTo(to) > 0)
+            return Collections.emptyNavigableSet();
+        return set.order.subSet(from, min.charAt(0) != '(', to, max.charAt(0) != '(');
+    }
+
+    private static Member bound(String bound, double score) {
+
+        if (bound.equals("-"))
+            return new Member(score, null, -1);
+        if (bound.equals("+"))
+            return new Member(score, null, 1);
+        if (bound.isEmpty() || (bound.charAt(0) != '[' && bound.charAt(0) != '('))
+            throw new IllegalArgumentException("min or max not valid string range item: " + bound);
+        return new Member(score, bound.substring(1), 0);
+    }
+
+    // compare as code points, surrogates sort above the rest of the basic plane
+    static int compare(String a, String b) {
+
+        int length = Math.min(a.length(), b.length());
+        for (int i = 0; i < length; i++) {
+            char x = a.charAt(i);
+            char y = b.charAt(i);
+            if (x != y) {
+                if (x >= 0xD800 && y >= 0xD800) {
+                    x += x >= 0xE000 ? -0x800 : 0x2000;
+                    y += y >= 0xE000 ? -0x800 : 0x2000;
+                }
+                return x - y;
+            }
+        }
+        return a.length() - b.length();
+    }
+
+
+    /* members by score, then name. edge -1 and 1 are bounds below and
+    above every member of their score */
+    private static final class Member implements Comparable<Member> {
+
+        final double score;
+        final String member;
+        final int edge;
+
+        Member(double score, String member, int edge) {
+            // redis does not tell -0 from 0
+            this.score = score == 0 ? 0 : score;
+            this.member = member;
+            this.edge = edge;
+        }
+
+        @Override
+        public int compareTo(Member other) {
+            int order = Double.compare(score, other.score);
+            if (order != 0)
+                return order;
+            if (edge != 0 || other.edge != 0)
+                return Integer.compare(edge, other.edge);
+            return compare(member, other.member);
+        }
+    }
+
+    // members in code point order and their count, written only under the lock of its key
+    private static final class Members {
+
+        final ConcurrentSkipListSet<String> order = new ConcurrentSkipListSet<>(MemoryStore::compare);
+        volatile int size;
+
+        long add(String member) {
+            if (!order.add(member))
+                return 0;
+            size++;
+            return 1;
+        }
+
+        long remove(String member) {
+            if (!order.remove(member))
+                return 0;
+            size--;
+            return 1;
+        }
+    }
+
+    // written only under the lock of its key, read without
+    private static final class SortedSet {
+
+        final ConcurrentHashMap<String, Double> scores = new ConcurrentHashMap<>();
+        final ConcurrentSkipListSet<Member> order = new ConcurrentSkipListSet<>();
+
+        long add(double score, String member) {
+
+            if (Double.isNaN(score))
+                throw new IllegalArgumentException("score is not a number");
+            Double previous = scores.put(member, score);
+            if (previous != null && previous == score)
+                return 0;
+            // the new entry goes in first, readers never miss the member
+            order.add(new Member(score, member, 0));
+            if (previous != null)
+                order.remove(new Member(previous, member, 0));
+            return previous == null ? 1 : 0;
+        }
+
+        long remove(String member) {
+
+            Double score = scores.remove(member);
+            if (score == null)
+                return 0;
+            order.remove(new Member(score, member, 0));
+            return 1;
+        }
+    }
+}
@@ -0,0 +1,292 @@
+package com.nosqlcode.redjava;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.StandardMBean;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Built in listener that keeps latency histograms per operation and model
+ * class, and counters of pipelines, commands, bytes written and ids
+ * matched. Everything can be read here or over JMX:
+ *
+ * <pre>
+ * Metrics metrics = new Metrics();
+ * Mapper.setListener(metrics);
+ * metrics.registerMBeans();
+ *
+ * System.out.println(metrics.getLatency(RedListener.Operation.LOAD, Customer.class));
+ * </pre>
+ *
+ * The beans are found under the com.nosqlcode.redjava domain, one per
+ * operation and model (type=Latency), one per model (type=Model), one for
+ * pipelines (type=Pipeline) and the pool's borrow wait (type=Pool).
+ */
+
+public class Metrics implements RedListener {
+
+
+    public static final String DOMAIN = "com.nosqlcode.redjava";
+
+    private final Map<Class<?>, Model> models = new ConcurrentHashMap<>();
+    private final Histogram syncLatency = new Histogram();
+    private final LongAdder commands = new LongAdder();
+
+    // set while the beans are registered, beans for models seen later are added on the fly
+    private volatile MBeanServer server;
+    private final List<ObjectName> registered = new ArrayList<>();
+
+
+    @Override
+    public void operation(Operation operation, Class<?> model, long nanos, boolean failed) {
+        Model stats = model(model);
+        stats.latency[operation.ordinal()].record(nanos);
+        if (failed)
+            stats.failures.increment();
+    }
+
+    @Override
+    public void synced(int commands, long nanos) {
+        syncLatency.record(nanos);
+        this.commands.add(commands);
+    }
+
+    @Override
+    public void written(Class<?> model, long bytes) {
+        Model stats = model(model);
+        stats.objectsWritten.increment();
+        stats.bytesWritten.add(bytes);
+    }
+
+    @Override
+    public void matched(Class<?> model, int ids) {
+        model(model).idsMatched.add(ids);
+    }
+
+
+    public Histogram getLatency(Operation operation, Class<?> model) {
+        return model(model).latency[operation.ordinal()];
+    }
+
+    public Histogram getSyncLatency() {
+        return syncLatency;
+    }
+
+    public long getCommands() {
+        return commands.sum();
+    }
+
+    public long getBytesWritten(Class<?> model) {
+        return model(model).bytesWritten.sum();
+    }
+
+    public long getIdsMatched(Class<?> model) {
+        return model(model).idsMatched.sum();
+    }
+
+    public void reset() {
+        for (Model model : models.values()) {
+            model.reset();
+        }
+        syncLatency.reset();
+        commands.reset();
+    }
+
+    @Override
+    public String toString() {
+
+        StringBuilder out = new StringBuilder();
+        out.append("sync: ").append(syncLatency).append(", commands ").append(commands.sum());
+        for (Model model : models.values()) {
+            for (Operation operation : Operation.values()) {
+                Histogram latency = model.latency[operation.ordinal()];
+                if (latency.getCount() > 0)
+                    out.append('\n').append(model.name).append(' ').append(operation).append(": ").append(latency);
+            }
+            if (model.objectsWritten.sum() > 0)
+                out.append('\n').append(model.name).append(" written: ").append(model.bytesWritten.sum())
+                        .append(" bytes in ").append(model.objectsWritten.sum()).append(" objects");
+            if (model.idsMatched.sum() > 0)
+                out.append('\n').append(model.name).append(" matched: ").append(model.idsMatched.sum()).append(" ids");
+        }
+        return out.toString();
+    }
+
+
+    // publish every statistic on the platform MBean server
+    public synchronized void registerMBeans() {
+
+        if (server != null)
+            return;
+        server = ManagementFactory.getPlatformMBeanServer();
+
+        register("type=Pipeline", new StandardMBean(new Pipelines(), PipelineMBean.class, false));
+        register("type=Pool,name=BorrowWait", new StandardMBean(Pool.getBorrowWait(), HistogramMBean.class, false));
+        for (Model model : models.values()) {
+            register(model);
+        }
+    }
+
+    public synchronized void unregisterMBeans() {
+
+        if (server == null)
+            return;
+        try {
+            for (ObjectName name : registered) {
+                if (server.isRegistered(name))
+                    server.unregisterMBean(name);
+            }
+        } catch (JMException e) {
+            throw new IllegalStateException(e);
+        } finally {
+            registered.clear();
+            server = null;
+        }
+    }
+
+
+    private Model model(Class<?> type) {
+
+        Model model = models.get(type);
+        if (model == null) {
+            Model created = new Model(type.getName());
+            model = models.putIfAbsent(type, created);
+            if (model == null) {
+                model = created;
+                if (server != null)
+                    register(model);
+            }
+        }
+        return model;
+    }
+
+    private synchronized void register(Model model) {
+
+        if (server == null)
+            return;
+        register("type=Model,model=" + model.name, new StandardMBean(model, ModelMBean.class, false));
+        for (Operation operation : Operation.values()) {
+            register("type=Latency,model=" + model.name + ",operation=" + operation,
+                    new StandardMBean(model.latency[operation.ordinal()], HistogramMBean.class, false));
+        }
+    }
+
+    private void register(String properties, StandardMBean bean) {
+
+        try {
+            ObjectName name = new ObjectName(DOMAIN + ":" + properties);
+            server.registerMBean(bean, name);
+            registered.add(name);
+        } catch (JMException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+
+    public interface ModelMBean {
+
+        long getObjectsWritten();
+
+        long getBytesWritten();
+
+        long getIdsMatched();
+
+        long getFailures();
+    }
+
+    public interface PipelineMBean {
+
+        long getSyncs();
+
+        long getCommands();
+
+        double getCommandsPerSync();
+
+        long getSyncP50Nanos();
+
+        long getSyncP99Nanos();
+    }
+
+
+    private static final class Model implements ModelMBean {
+
+        final String name;
+        final Histogram[] latency = new Histogram[Operation.values().length];
+        final LongAdder objectsWritten = new LongAdder();
+        final LongAdder bytesWritten = new LongAdder();
+        final LongAdder idsMatched = new LongAdder();
+        final LongAdder failures = new LongAdder();
+
+        Model(String name) {
+            this.name = name;
+            for (int i = 0; i < latency.length; i++) {
+                latency[i] = new Histogram();
+            }
+        }
+
+        void reset() {
+            for (Histogram histogram : latency) {
+                histogram.reset();
+            }
+            objectsWritten.reset();
+            bytesWritten.reset();
+            idsMatched.reset();
+            failures.reset();
+        }
+
+        @Override
+        public long getObjectsWritten() {
+            return objectsWritten.sum();
+        }
+
+        @Override
+        public long getBytesWritten() {
+            return bytesWritten.sum();
+        }
+
+        @Override
+        public long getIdsMatched() {
+            return idsMatched.sum();
+        }
+
+        @Override
+        public long getFailures() {
+            return failures.sum();
+        }
+    }
+
+    private final class Pipelines implements PipelineMBean {
+
+        @Override
+        public long getSyncs() {
+            return syncLatency.getCount();
+        }
+
+        @Override
+        public long getCommands() {
+            return commands.sum();
+        }
+
+        @Override
+        public double getCommandsPerSync() {
+            long syncs = syncLatency.getCount();
+            return syncs == 0 ? 0 : (double) commands.sum() / syncs;
+        }
+
+        @Override
+        public long getSyncP50Nanos() {
+            return syncLatency.getP50Nanos();
+        }
+
+        @Override
+        public long getSyncP99Nanos() {
+            return syncLatency.getP99Nanos();
+        }
+    }
+}
@@ -0,0 +1,241 @@
+package com.nosqlcode.redjava;
+
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.JedisPubSub;
+import redis.clients.jedis.exceptions.JedisConnectionException;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounded in-process cache of loaded objects in front of Mapper.load, the
+ * bulk loads, sessions and Finder hydration.
+ *
+ * Entries hold the raw field bytes, list elements and reference ids read
+ * for one object id, so every hit decodes fresh instances and no two
+ * callers share mutable state. The least recently used entry is evicted
+ * once the cache is full, entries older than the time to live count as
+ * misses.
+ *
+ * Saves and deletes through any mapper drop the entry locally and publish
+ * the id on {@link #CHANNEL}. Caches in other processes only see those
+ * messages after {@link #listen(Jedis)}; writes made without redjava are
+ * not noticed and are bounded by the time to live alone. A writer drops
+ * its ids again once its pipeline ran, and a load only keeps what it read
+ * when no invalidation of the id came in since it started, so a load that
+ * races a write never caches the old values.
+ *
+ * <pre>
+ * NearCache cache = new NearCache(10000, 30, TimeUnit.SECONDS);
+ * cache.listen(new Jedis("localhost", 6379));
+ * Mapper.setNearCache(cache);
+ * </pre>
+ */
+
+public class NearCache {
+
+
+    // invalidation messages, the payload is the object id
+    public static final String CHANNEL = "redjava:invalidate";
+
+    // invalidation counters, ids share one by hash
+    private static final int GENERATIONS = 4096;
+
+
+    private final int maxEntries;
+    private final long ttlNanos;
+
+    private final LinkedHashMap<String, Entry> entries;
+    private final long[] generations = new long[GENERATIONS];
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+    private final AtomicLong invalidations = new AtomicLong();
+
+    private volatile Listener listener;
+
+
+    // a ttl of 0 keeps entries until they are evicted or invalidated
+    public NearCache(int maxEntries, long ttl, TimeUnit unit) {
+
+        if (maxEntries <= 0)
+            throw new IllegalArgumentException("maxEntries must be positive");
+
+        this.maxEntries = maxEntries;
+        this.ttlNanos = unit.toNanos(ttl);
+
+        // access order, the eldest entry is the least recently used one
+        this.entries = new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+                if (size() <= NearCache.this.maxEntries)
+                    return false;
+                evictions.incrementAndGet();
+                return true;
+            }
+        };
+    }
+
+
+    // per member state of the object, null on a miss
+    Object[] get(String id) {
+
+        synchronized (entries) {
+            Entry entry = entries.get(id);
+            if (entry != null && ttlNanos > 0 && System.nanoTime() - entry.created > ttlNanos) {
+                entries.remove(id);
+                entry = null;
+            }
+
+            if (entry == null) {
+                misses.incrementAndGet();
+                return null;
+            }
+            hits.incrementAndGet();
+            return entry.values;
+        }
+    }
+
+    // taken before a miss is read from redis and handed back to put
+    long generation(String id) {
+
+        synchronized (entries) {
+            return generations[slot(id)];
+        }
+    }
+
+    // dropped when the id was invalidated after generation() was taken
+    void put(String id, Object[] values, long generation) {
+
+        synchronized (entries) {
+            if (generations[slot(id)] == generation)
+                entries.put(id, new Entry(values, System.nanoTime()));
+        }
+    }
+
+    public void invalidate(String id) {
+
+        synchronized (entries) {
+            generations[slot(id)]++;
+            if (entries.remove(id) != null)
+                invalidations.incrementAndGet();
+        }
+    }
+
+    private static int slot(String id) {
+        return (id.hashCode() & 0x7fffffff) % GENERATIONS;
+    }
+
+    public void clear() {
+
+        synchronized (entries) {
+            entries.clear();
+        }
+    }
+
+    public int size() {
+
+        synchronized (entries) {
+            return entries.size();
+        }
+    }
+
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    public long getEvictions() {
+        return evictions.get();
+    }
+
+    public long getInvalidations() {
+        return invalidations.get();
+    }
+
+    @Override
+    public String toString() {
+        return "hits " + hits + ", misses " + misses + ", evictions " + evictions
+                + ", invalidations " + invalidations;
+    }
+
+
+    /* subscribe to the invalidations published by every mapper. the
+    connection is used for nothing else and is closed by close(), do not
+    take it from the pool, it would stay borrowed for good */
+    public void listen(Jedis jedis) {
+
+        if (listener != null)
+            throw new IllegalStateException("already listening");
+
+        Listener subscriber = new Listener();
+        listener = subscriber;
+
+        Thread thread = new Thread(() -> {
+            try {
+                jedis.subscribe(subscriber, CHANNEL);
+                jedis.disconnect();
+            } catch (JedisConnectionException e) {
+                // connection lost or already closed, nothing left to invalidate with
+            }
+        }, "redjava-near-cache");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    // stop listening, the cached entries stay
+    public void close() {
+
+        Listener subscriber = listener;
+        listener = null;
+        if (subscriber != null && subscriber.isSubscribed())
+            subscriber.unsubscribe();
+    }
+
+
+    private static final class Entry {
+
+        final Object[] values;
+        final long created;
+
+        Entry(Object[] values, long created) {
+            this.values = values;
+            this.created = created;
+        }
+    }
+
+    private final class Listener extends JedisPubSub {
+
+        @Override
+        public void onMessage(String channel, String id) {
+            invalidate(id);
+        }
+
+        @Override
+        public void onPMessage(String pattern, String channel, String message) {
+        }
+
+        @Override
+        public void onSubscribe(String channel, int subscribedChannels) {
+        }
+
+        @Override
+        public void onUnsubscribe(String channel, int subscribedChannels) {
+        }
+
+        @Override
+        public void onPUnsubscribe(String pattern, int subscribedChannels) {
+        }
+
+        @Override
+        public void onPSubscribe(String pattern, int subscribedChannels) {
+        }
+    }
+}
@@ -10,44 +10,395 @@ import redis.clients.jedis.Jedis;
 import redis.clients.jedis.JedisPool;
 import redis.clients.jedis.JedisPoolConfig;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
 public class Pool {
 
+
+    // how reads are spread over the replicas
+    public enum ReadBalance {
+        ROUND_ROBIN,
+        // the replica with the fewest connections borrowed right now
+        LEAST_LOADED
+    }
+
     public static JedisPool pool;
 
+    // every node with sharding on, otherwise just pool
+    private static JedisPool[] pools;
+    private static Shards shards;
+
+    // read only copies of pool, loads and finds go to them
+    private static JedisPool[] replicas = new JedisPool[0];
+    private static volatile ReadBalance readBalance = ReadBalance.ROUND_ROBIN;
+    private static final AtomicInteger nextReplica = new AtomicInteger();
+
+    // set by connectLocal, handed out instead of pooled connections
+    private static volatile LocalConnection local;
+
+    // time callers waited for a connection
+    private static final Histogram borrowWait = new Histogram();
+
+    // open borrows by connection, only kept with leak detection on
+    private static final Map<Jedis, Borrow> borrows = new IdentityHashMap<>();
+    private static volatile long leakNanos;
+    private static ScheduledExecutorService leakCheck;
+
+
     public static void connect(String ipAddress, int port) {
-        // Create and set a JedisPoolConfig
+        connect(new PoolConfig().host(ipAddress).port(port));
+    }
+
+    public static void connect(PoolConfig config) {
+
+        pool = open(config);
+        pools = new JedisPool[]{pool};
+        shards = null;
+        replicas = new JedisPool[0];
+        local = null;
+        leakCheck(config);
+    }
+
+    /* run on an in-process store instead of a redis server. every caller
+    shares one connection that needs no pooling, see LocalConnection */
+    public static void connectLocal(Store store) {
+
+        stopLeakCheck();
+        leakNanos = 0;
+        pool = null;
+        pools = new JedisPool[0];
+        shards = null;
+        replicas = new JedisPool[0];
+        local = new LocalConnection(store);
+    }
+
+    /* write to the primary and read from its replicas. loads and finds take
+    a replica connection, saves, deletes and sessions the primary one, so a
+    session always reads its own writes. plain loads may see a replica that
+    is still behind */
+    public static void connectReplicated(PoolConfig primary, PoolConfig... replicaConfigs) {
+
+        connect(primary);
+        JedisPool[] opened = new JedisPool[replicaConfigs.length];
+        for (int i = 0; i < replicaConfigs.length; i++) {
+            opened[i] = open(replicaConfigs[i]);
+        }
+        replicas = opened;
+    }
+
+    // how a read picks its replica
+    public static void setReadBalance(ReadBalance balance) {
+        readBalance = balance;
+    }
+
+    /* spread objects over several redis servers by consistent hashing of
+    their ids. a connection from getJedis() then holds one connection to
+    every node, see ShardedConnection */
+    public static void connectShards(PoolConfig... nodes) {
+
+        if (nodes.length == 0)
+            throw new IllegalArgumentException("no nodes");
+
+        List<String> addresses = new ArrayList<>();
+        pools = new JedisPool[nodes.length];
+        for (int i = 0; i < nodes.length; i++) {
+            pools[i] = open(nodes[i]);
+            addresses.add(nodes[i].host + ":" + nodes[i].port);
+        }
+        pool = pools[0];
+        shards = new Shards(addresses);
+        replicas = new JedisPool[0];
+        local = null;
+        leakCheck(nodes[0]);
+    }
+
+    public static boolean isSharded() {
+        return shards != null;
+    }
+
+    private static JedisPool open(PoolConfig config) {
+
         JedisPoolConfig poolConfig = new JedisPoolConfig();
-        // Maximum active connections to Redis instance
-        poolConfig.setMaxTotal(20);
-        // Tests whether connection is dead when connection
-        // retrieval method is called
-        poolConfig.setTestOnBorrow(true);
-        /* Some extra configuration */
-        // Tests whether connection is dead when returning a
-        // connection to the pool
-        poolConfig.setTestOnReturn(true);
-        // Number of connections to Redis that just sit there
-        // and do nothing
-        poolConfig.setMaxIdle(5);
-        // Minimum number of idle connections to Redis
-        // These can be seen as always open and ready to serve
-        poolConfig.setMinIdle(1);
-        // Tests whether connections are dead during idle periods
-        poolConfig.setTestWhileIdle(true);
-        // Maximum number of connections to test in each idle check
-        poolConfig.setNumTestsPerEvictionRun(10);
-        // Idle connection checking period
-        poolConfig.setTimeBetweenEvictionRunsMillis(60000);
-        // Create the jedisPool
-        pool = new JedisPool(poolConfig, ipAddress, port);
+        poolConfig.setMaxTotal(config.maxTotal);
+        poolConfig.setMaxIdle(config.maxIdle);
+        poolConfig.setMinIdle(config.minIdle);
+        poolConfig.setMaxWaitMillis(config.maxWaitMillis);
+        // a ping on every borrow or return is a round trip each, both off unless asked for
+        poolConfig.setTestOnBorrow(config.testOnBorrow);
+        poolConfig.setTestOnReturn(config.testOnReturn);
+        // dead connections are found while idle instead
+        poolConfig.setTestWhileIdle(config.testWhileIdle);
+        poolConfig.setNumTestsPerEvictionRun(config.testsPerEvictionRun);
+        poolConfig.setTimeBetweenEvictionRunsMillis(config.evictionRunMillis);
+
+        return new GaugedPool(poolConfig, config);
+    }
+
+    private static void leakCheck(PoolConfig config) {
+
+        leakNanos = TimeUnit.MILLISECONDS.toNanos(config.leakDetectionMillis);
+        if (config.leakDetectionMillis > 0)
+            startLeakCheck(config.leakDetectionMillis);
     }
     public static void release() {
-        pool.destroy();
+        stopLeakCheck();
+        for (JedisPool node : pools) {
+            node.destroy();
+        }
+        for (JedisPool replica : replicas) {
+            replica.destroy();
+        }
+        shards = null;
+        replicas = new JedisPool[0];
+        local = null;
     }
     public static Jedis getJedis() {
-        return pool.getResource();
+        LocalConnection store = local;
+        if (store != null)
+            return store;
+        long start = System.nanoTime();
+        Jedis jedis = shards == null ? pool.getResource() : borrowNodes();
+        return borrowed(jedis, start);
+    }
+    // a connection for reads only, from a replica when there are any
+    public static Jedis getReadJedis() {
+        JedisPool[] readFrom = replicas;
+        if (readFrom.length == 0)
+            return getJedis();
+
+        long start = System.nanoTime();
+        return borrowed(pickReplica(readFrom).getResource(), start);
+    }
+
+    private static Jedis borrowed(Jedis jedis, long start) {
+        borrowWait.record(System.nanoTime() - start);
+
+        if (leakNanos > 0) {
+            synchronized (borrows) {
+                borrows.put(jedis, new Borrow());
+            }
+        }
+        return jedis;
     }
     public static void returnJedis(Jedis jedis) {
-        pool.returnResource(jedis);
+        forget(jedis);
+        if (jedis instanceof LocalConnection)
+            return;
+        if (jedis instanceof ShardedConnection) {
+            Jedis[] nodes = ((ShardedConnection) jedis).nodes;
+            for (int i = 0; i < nodes.length; i++)
+                pools[i].returnResource(nodes[i]);
+        } else {
+            owner(jedis).returnResource(jedis);
+        }
+    }
+    // for connections that failed, they are closed instead of reused
+    public static void returnBrokenJedis(Jedis jedis) {
+        forget(jedis);
+        if (jedis instanceof LocalConnection)
+            return;
+        if (jedis instanceof ShardedConnection) {
+            // which node failed is not known, none of them is trusted again
+            Jedis[] nodes = ((ShardedConnection) jedis).nodes;
+            for (int i = 0; i < nodes.length; i++)
+                pools[i].returnBrokenResource(nodes[i]);
+        } else {
+            owner(jedis).returnBrokenResource(jedis);
+        }
+    }
+
+    private static JedisPool pickReplica(JedisPool[] readFrom) {
+
+        int next = (nextReplica.getAndIncrement() & Integer.MAX_VALUE) % readFrom.length;
+        if (readBalance == ReadBalance.ROUND_ROBIN)
+            return readFrom[next];
+
+        // ties go round robin too, idle replicas would otherwise all lose to the first
+        JedisPool least = readFrom[next];
+        for (int i = 1; i < readFrom.length; i++) {
+            JedisPool replica = readFrom[(next + i) % readFrom.length];
+            if (active(replica) < active(least))
+                least = replica;
+        }
+        return least;
+    }
+
+    // whether a connection reads from a replica, which may lag behind the primary
+    static boolean isReplica(Jedis jedis) {
+        return replicas.length > 0 && owner(jedis) != pool;
+    }
+
+    // the pool a connection came from, found by its address
+    private static JedisPool owner(Jedis jedis) {
+
+        for (JedisPool replica : replicas) {
+            if (replica instanceof GaugedPool && ((GaugedPool) replica).owns(jedis))
+                return replica;
+        }
+        return pool;
+    }
+
+    private static Jedis borrowNodes() {
+
+        Jedis[] nodes = new Jedis[pools.length];
+        try {
+            for (int i = 0; i < pools.length; i++)
+                nodes[i] = pools[i].getResource();
+        } catch (RuntimeException e) {
+            for (int i = 0; i < pools.length && nodes[i] != null; i++)
+                pools[i].returnResource(nodes[i]);
+            throw e;
+        }
+        return new ShardedConnection(shards, nodes);
+    }
+
+
+    public static Histogram getBorrowWait() {
+        return borrowWait;
+    }
+
+    // connections borrowed right now, over all nodes and replicas
+    public static int getActive() {
+        int active = 0;
+        for (JedisPool node : pools) {
+            active += active(node);
+        }
+        for (JedisPool replica : replicas) {
+            active += active(replica);
+        }
+        return active;
+    }
+
+    // connections open and waiting in the pool, over all nodes and replicas
+    public static int getIdle() {
+        int idle = 0;
+        for (JedisPool node : pools) {
+            if (node instanceof GaugedPool)
+                idle += ((GaugedPool) node).idle();
+        }
+        for (JedisPool replica : replicas) {
+            if (replica instanceof GaugedPool)
+                idle += ((GaugedPool) replica).idle();
+        }
+        return idle;
+    }
+
+    private static int active(JedisPool pool) {
+        return pool instanceof GaugedPool ? ((GaugedPool) pool).active() : 0;
+    }
+
+    /* connections held longer than the leak detection threshold, each as
+    an exception whose stack trace is where it was borrowed */
+    public static List<Throwable> getLeaks() {
+
+        List<Throwable> leaks = new ArrayList<>();
+        long now = System.nanoTime();
+        synchronized (borrows) {
+            for (Borrow borrow : borrows.values()) {
+                if (now - borrow.time > leakNanos)
+                    leaks.add(borrow.leak(now));
+            }
+        }
+        return leaks;
+    }
+
+
+    private static void forget(Jedis jedis) {
+        if (leakNanos > 0) {
+            synchronized (borrows) {
+                borrows.remove(jedis);
+            }
+        }
+    }
+
+    private static synchronized void startLeakCheck(long millis) {
+        stopLeakCheck();
+        leakCheck = Executors.newSingleThreadScheduledExecutor(task -> {
+            Thread thread = new Thread(task, "redjava-leak-check");
+            thread.setDaemon(true);
+            return thread;
+        });
+        leakCheck.scheduleWithFixedDelay(Pool::reportLeaks, millis, millis, TimeUnit.MILLISECONDS);
+    }
+
+    private static synchronized void stopLeakCheck() {
+        if (leakCheck != null) {
+            leakCheck.shutdownNow();
+            leakCheck = null;
+        }
+        synchronized (borrows) {
+            borrows.clear();
+        }
+    }
+
+    // every leak is printed once
+    private static void reportLeaks() {
+        long now = System.nanoTime();
+        synchronized (borrows) {
+            for (Borrow borrow : borrows.values()) {
+                if (!borrow.reported && now - borrow.time > leakNanos) {
+                    borrow.reported = true;
+                    borrow.leak(now).printStackTrace();
+                }
+            }
+        }
+    }
+
+
+    private static final class Borrow {
+
+        final long time = System.nanoTime();
+        final String thread = Thread.currentThread().getName();
+        final Throwable stack = new Throwable();
+        boolean reported;
+
+        Throwable leak(long now) {
+            Throwable leak = new Throwable("redis connection borrowed by " + thread + " "
+                    + TimeUnit.NANOSECONDS.toMillis(now - time) + " ms ago was not returned");
+            leak.setStackTrace(caller(stack.getStackTrace()));
+            return leak;
+        }
+
+        // the stack from the first frame outside this class
+        private static StackTraceElement[] caller(StackTraceElement[] stack) {
+            int from = 0;
+            while (from < stack.length - 1 && stack[from].getClassName().startsWith(Pool.class.getName()))
+                from++;
+            return Arrays.copyOfRange(stack, from, stack.length);
+        }
+    }
+
+    // exposes the gauges jedis keeps to itself
+    private static final class GaugedPool extends JedisPool {
+
+        private final String host;
+        private final int port;
+
+        GaugedPool(JedisPoolConfig poolConfig, PoolConfig config) {
+            super(poolConfig, config.host, config.port, config.timeoutMillis,
+                    config.password, config.database);
+            this.host = config.host;
+            this.port = config.port;
+        }
+
+        boolean owns(Jedis jedis) {
+            return jedis.getClient().getPort() == port && jedis.getClient().getHost().equals(host);
+        }
+
+        int active() {
+            return internalPool.getNumActive();
+        }
+
+        int idle() {
+            return internalPool.getNumIdle();
+        }
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,122 @@
+package com.nosqlcode.redjava;
+
+import redis.clients.jedis.Protocol;
+
+/**
+ * Settings for Pool.connect, set fluently:
+ *
+ * <pre>
+ * Pool.connect(new PoolConfig()
+ *         .host("10.0.0.5").port(6380)
+ *         .password("secret").database(2)
+ *         .maxTotal(50).maxWaitMillis(500)
+ *         .leakDetectionMillis(30000));
+ * </pre>
+ *
+ * Connections are not pinged on borrow or return by default, that would
+ * cost a round trip each time; idle connections are checked in the
+ * background instead.
+ */
+
+public class PoolConfig {
+
+
+    String host = "localhost";
+    int port = Protocol.DEFAULT_PORT;
+    int timeoutMillis = Protocol.DEFAULT_TIMEOUT;
+    String password;
+    int database = Protocol.DEFAULT_DATABASE;
+
+    int maxTotal = 20;
+    int maxIdle = 5;
+    int minIdle = 1;
+    long maxWaitMillis = -1;
+
+    boolean testOnBorrow;
+    boolean testOnReturn;
+    boolean testWhileIdle = true;
+    long evictionRunMillis = 60000;
+    int testsPerEvictionRun = 10;
+
+    long leakDetectionMillis;
+
+
+    public PoolConfig host(String host) {
+        this.host = host;
+        return this;
+    }
+
+    public PoolConfig port(int port) {
+        this.port = port;
+        return this;
+    }
+
+    // connect and socket read timeout
+    public PoolConfig timeoutMillis(int timeoutMillis) {
+        this.timeoutMillis = timeoutMillis;
+        return this;
+    }
+
+    public PoolConfig password(String password) {
+        this.password = password;
+        return this;
+    }
+
+    public PoolConfig database(int database) {
+        this.database = database;
+        return this;
+    }
+
+    public PoolConfig maxTotal(int maxTotal) {
+        this.maxTotal = maxTotal;
+        return this;
+    }
+
+    public PoolConfig maxIdle(int maxIdle) {
+        this.maxIdle = maxIdle;
+        return this;
+    }
+
+    public PoolConfig minIdle(int minIdle) {
+        this.minIdle = minIdle;
+        return this;
+    }
+
+    // how long a borrow waits for a free connection, negative waits for good
+    public PoolConfig maxWaitMillis(long maxWaitMillis) {
+        this.maxWaitMillis = maxWaitMillis;
+        return this;
+    }
+
+    public PoolConfig testOnBorrow(boolean testOnBorrow) {
+        this.testOnBorrow = testOnBorrow;
+        return this;
+    }
+
+    public PoolConfig testOnReturn(boolean testOnReturn) {
+        this.testOnReturn = testOnReturn;
+        return this;
+    }
+
+    // ping idle connections every evictionRunMillis, testsPerEvictionRun at a time
+    public PoolConfig testWhileIdle(boolean testWhileIdle) {
+        this.testWhileIdle = testWhileIdle;
+        return this;
+    }
+
+    public PoolConfig evictionRunMillis(long evictionRunMillis) {
+        this.evictionRunMillis = evictionRunMillis;
+        return this;
+    }
+
+    public PoolConfig testsPerEvictionRun(int testsPerEvictionRun) {
+        this.testsPerEvictionRun = testsPerEvictionRun;
+        return this;
+    }
+
+    // report connections kept longer than this, with the stack that borrowed them. 0 is off
+    public PoolConfig leakDetectionMillis(long leakDetectionMillis) {
+        this.leakDetectionMillis = leakDetectionMillis;
+        return this;
+    }
+}
@@ -14,4 +14,7 @@ import java.lang.annotation.Target;
 @Retention(RetentionPolicy.RUNTIME)
 @Target({ElementType.FIELD})
 public @interface RedBool {
+
+    // SET keeps one set per distinct value, list fields always use SCORE
+    Index.Type index() default Index.Type.SCORE;
 }
@@ -0,0 +1,26 @@
+package com.nosqlcode.redjava;
+
+import java.lang.annotation.*;
+
+/**
+ * Composite index over several fields of a model, in the order given:
+ *
+ * <pre>
+ * &#64;RedComposite({"lastName", "city"})
+ * public class Customer { ... }
+ * </pre>
+ *
+ * Saves keep one member per object, "lastName\0city\0id", in a zero score
+ * sorted set. Criteria with an equality on every one of the fields are
+ * answered by a single range lookup in it instead of one index per field,
+ * once Index.buildComposites has added the objects saved before.
+ */
+
+@Retention(RetentionPolicy.RUNTIME)
+@Target({ElementType.TYPE})
+@Repeatable(RedComposites.class)
+public @interface RedComposite {
+
+    // mapped value fields, at least two
+    String[] value();
+}
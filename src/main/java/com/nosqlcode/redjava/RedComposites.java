@@ -0,0 +1,14 @@
+package com.nosqlcode.redjava;
+
+import java.lang.annotation.*;
+
+/**
+ * Holds the RedComposite annotations of a class declaring more than one.
+ */
+
+@Retention(RetentionPolicy.RUNTIME)
+@Target({ElementType.TYPE})
+public @interface RedComposites {
+
+    RedComposite[] value();
+}
@@ -0,0 +1,29 @@
+package com.nosqlcode.redjava;
+
+import java.lang.annotation.*;
+
+/**
+ * Whether fields get an index of their own. On a field it decides for
+ * that field, on a class it is the default of its fields, which is to
+ * index every one of them without it:
+ *
+ * <pre>
+ * &#64;RedIndexed(false)
+ * public class Address {
+ *     &#64;RedStr public String street;
+ *     &#64;RedStr &#64;RedIndexed public String city;
+ * }
+ * </pre>
+ *
+ * A field declared with a LEX or SET index is indexed whatever the class
+ * default. Fields that are not indexed are saved and loaded as before,
+ * but cost no index writes and cannot be queried on their own; they can
+ * still be part of a RedComposite.
+ */
+
+@Retention(RetentionPolicy.RUNTIME)
+@Target({ElementType.TYPE, ElementType.FIELD})
+public @interface RedIndexed {
+
+    boolean value() default true;
+}
@@ -0,0 +1,50 @@
+package com.nosqlcode.redjava;
+
+/**
+ * Callbacks from the hot path of the mapper, set with Mapper.setListener.
+ *
+ * Without a listener nothing is timed or counted. With one, every method
+ * runs on the thread doing the work, so it must be quick and thread safe.
+ * All methods default to doing nothing.
+ *
+ * @see Metrics
+ */
+
+public interface RedListener {
+
+    enum Operation {
+        SAVE, LOAD, DELETE, FIND
+    }
+
+    /**
+     * One Mapper.save, load or delete, or one round of a Finder, finished.
+     *
+     * @param model class of the object, or of the objects found
+     * @param nanos time spent, connection borrowing included
+     * @param failed true when it ended in an exception
+     */
+    default void operation(Operation operation, Class<?> model, long nanos, boolean failed) {
+    }
+
+    /**
+     * One pipeline was sent and its replies read.
+     *
+     * @param commands commands the pipeline carried
+     * @param nanos time sync() blocked
+     */
+    default void synced(int commands, long nanos) {
+    }
+
+    /**
+     * Field values and list elements written for one object, keys and
+     * protocol framing not counted.
+     */
+    default void written(Class<?> model, long bytes) {
+    }
+
+    /**
+     * Ids the qualifiers of a Finder matched in one round, before hydration.
+     */
+    default void matched(Class<?> model, int ids) {
+    }
+}
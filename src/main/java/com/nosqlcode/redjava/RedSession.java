@@ -0,0 +1,171 @@
+package com.nosqlcode.redjava;
+
+import redis.clients.jedis.Jedis;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Supplier;
+
+/**
+ * Unit of work over one pooled connection, meant to live for one request.
+ *
+ * Objects are loaded at most once per session: loading an id again, or
+ * reaching it as a reference of another object, returns the same
+ * instance. Saves and deletes are only queued and go out together on
+ * commit, in a single pipeline or, for a transactional session, a single
+ * MULTI/EXEC block. Closing the session drops whatever was not committed.
+ *
+ * <pre>
+ * try (RedSession session = new RedSession()) {
+ *     Customer customer = session.load(id, Customer::new);
+ *     customer.lastName = "silva";
+ *     session.save(customer);
+ *     session.commit();
+ * }
+ * </pre>
+ *
+ * Sessions are not thread safe.
+ */
+
+public class RedSession implements AutoCloseable {
+
+
+    private final Jedis jedis;
+    private final boolean transactional;
+
+    // first level cache, every mapper of the session by object id and by instance
+    private final Map<String, Mapper> cache = new HashMap<>();
+    private final Map<Object, Mapper> managed = new IdentityHashMap<>();
+
+    private final Set<Mapper> saves = new LinkedHashSet<>();
+    private final Set<Mapper> deletes = new LinkedHashSet<>();
+
+    private boolean closed;
+
+
+    public RedSession() {
+        this(false);
+    }
+
+    public RedSession(boolean transactional) {
+        this.jedis = Pool.getJedis();
+        this.transactional = transactional;
+    }
+
+
+    public <T> T load(String id, Supplier<T> factory) {
+
+        List<String> ids = new ArrayList<>(1);
+        ids.add(id);
+        return loadAll(ids, factory).get(0);
+    }
+
+    // ids not in the session yet are loaded together, one round trip per level of references
+    @SuppressWarnings("unchecked")
+    public <T> List<T> loadAll(List<String> ids, Supplier<T> factory) {
+
+        checkOpen();
+
+        List<Mapper> missing = new ArrayList<>();
+        for (String id : ids) {
+            if (!cache.containsKey(id)) {
+                Mapper mapper = new Mapper(factory.get(), jedis);
+                mapper.setId(id);
+                cache.put(id, mapper);
+                missing.add(mapper);
+            }
+        }
+
+        if (!missing.isEmpty()) {
+            Mapper.readGraph(jedis, missing, cache);
+            for (Mapper mapper : cache.values()) {
+                managed.put(mapper.getInstance(), mapper);
+            }
+        }
+
+        List<T> objects = new ArrayList<>(ids.size());
+        for (String id : ids) {
+            objects.add((T) cache.get(id).getInstance());
+        }
+        return objects;
+    }
+
+    // queue a loaded or new object to be written on commit
+    public void save(Object obj) {
+
+        checkOpen();
+
+        Mapper mapper = managed.get(obj);
+        if (mapper == null) {
+            mapper = new Mapper(obj, jedis);
+            managed.put(obj, mapper);
+        }
+        deletes.remove(mapper);
+        saves.add(mapper);
+    }
+
+    // queue an object of this session to be deleted on commit
+    public void delete(Object obj) {
+
+        checkOpen();
+
+        Mapper mapper = managed.get(obj);
+        if (mapper == null)
+            throw new IllegalArgumentException("object is not part of this session");
+
+        saves.remove(mapper);
+        if (mapper.getId() == null)
+            managed.remove(obj);
+        else
+            deletes.add(mapper);
+    }
+
+    public boolean contains(Object obj) {
+        return managed.containsKey(obj);
+    }
+
+    // write everything queued since the last commit, new objects have their ids afterwards
+    public Mapper.WriteStats commit() {
+
+        checkOpen();
+
+        Mapper.WriteStats stats = Mapper.flush(jedis, saves, deletes, transactional);
+
+        for (Mapper mapper : saves) {
+            cache.put(mapper.getId(), mapper);
+        }
+        for (Mapper mapper : deletes) {
+            cache.remove(mapper.getId());
+            managed.remove(mapper.getInstance());
+        }
+        saves.clear();
+        deletes.clear();
+        return stats;
+    }
+
+    // discard uncommitted saves and deletes, the loaded objects stay cached
+    public void clear() {
+        saves.clear();
+        deletes.clear();
+    }
+
+    @Override
+    public void close() {
+
+        if (closed)
+            return;
+        closed = true;
+        Pool.returnJedis(jedis);
+    }
+
+
+    private void checkOpen() {
+        if (closed)
+            throw new IllegalStateException("session is closed");
+    }
+}
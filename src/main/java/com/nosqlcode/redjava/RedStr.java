@@ -11,4 +11,8 @@ import java.lang.annotation.*;
 @Retention(RetentionPolicy.RUNTIME)
 @Target({ElementType.FIELD})
 public @interface RedStr {
+
+    // LEX allows prefix and range lookups, SET keeps one set per distinct value,
+    // list fields always use SCORE
+    Index.Type index() default Index.Type.SCORE;
 }
@@ -0,0 +1,24 @@
+package com.nosqlcode.redjava;
+
+import java.lang.annotation.*;
+
+/**
+ * A field of any type with a codec, see Codecs. Together with RedLst the
+ * codec of the list element type is used.
+ */
+
+@Retention(RetentionPolicy.RUNTIME)
+@Target({ElementType.FIELD})
+public @interface RedVal {
+
+    // codec for this field only, by default the one registered for its type
+    Class<? extends Codec<?>> codec() default Registered.class;
+
+    // SET keeps one set per distinct value, list fields always use SCORE
+    Index.Type index() default Index.Type.SCORE;
+
+
+    // stands for the codec registered for the field type, see Codecs.register
+    interface Registered extends Codec<Object> {
+    }
+}
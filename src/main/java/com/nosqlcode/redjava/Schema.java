@@ -0,0 +1,408 @@
+package com.nosqlcode.redjava;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Mapping metadata for one model class.
+ *
+ * The annotations of a class are only inspected the first time it is
+ * mapped; every later Mapper of the same class shares the cached schema,
+ * its precomputed keys and its field accessors.
+ *
+ * When redjava-processor generated a <code>&lt;Model&gt;RedMapper</code>
+ * for the class, its direct field accessors are used instead of method
+ * handles.
+ */
+
+public final class Schema {
+
+
+    private static final ConcurrentHashMap<Class<?>, Schema> schemas = new ConcurrentHashMap<>();
+
+
+    public enum Kind { PRIMITIVE, LIST, OBJECT }
+
+
+    private final String type;
+    // whether fields without RedIndexed of their own are indexed
+    private final boolean indexedByDefault;
+    private final List<Property> properties;
+    private final List<Composite> composites;
+
+
+    public static Schema of(Class<?> cls) {
+
+        Schema schema = schemas.get(cls);
+        if (schema == null) {
+            schema = new Schema(cls);
+            Schema raced = schemas.putIfAbsent(cls, schema);
+            if (raced != null)
+                schema = raced;
+        }
+        return schema;
+    }
+
+
+    private Schema(Class<?> cls) {
+
+        type = cls.getSimpleName();
+        indexedByDefault = !cls.isAnnotationPresent(RedIndexed.class) || cls.getAnnotation(RedIndexed.class).value();
+
+        Generated generated = generated(cls);
+
+        ArrayList<Property> found = new ArrayList<>();
+
+        for (Field field : cls.getFields()) {
+
+            Property property = property(field, generated);
+            if (property != null)
+                found.add(property);
+        }
+
+        properties = Collections.unmodifiableList(found);
+
+        ArrayList<Composite> declared = new ArrayList<>();
+        for (RedComposite composite : cls.getAnnotationsByType(RedComposite.class)) {
+            declared.add(composite(cls, composite.value()));
+        }
+        composites = Collections.unmodifiableList(declared);
+    }
+
+    private Composite composite(Class<?> cls, String[] attrs) {
+
+        if (attrs.length < 2)
+            throw new IllegalArgumentException(cls.getName() + ": a composite index needs two fields or more");
+
+        ArrayList<Property> fields = new ArrayList<>();
+        for (String attr : attrs) {
+            Property property = getProperty(attr);
+            if (property == null || property.kind != Kind.PRIMITIVE)
+                throw new IllegalArgumentException(cls.getName() + ": " + attr + " is not a mapped value field");
+            if (fields.contains(property))
+                throw new IllegalArgumentException(cls.getName() + ": " + attr + " appears twice in a composite index");
+            fields.add(property);
+        }
+        return new Composite(fields);
+    }
+
+
+    // determine what type of member the field is, same rules the mapper always used
+    private Property property(Field field, Generated generated) {
+
+        Accessor accessor = null;
+        if (generated != null)
+            accessor = generated.accessor(field.getName());
+        if (accessor == null)
+            accessor = accessor(field);
+
+        if (field.isAnnotationPresent(RedLst.class)) {
+
+            Codec<?> codec = codec(field, elementType(field));
+            if (codec != null)
+                return new Property(Kind.LIST, field, accessor, codec);
+        } else {
+
+            Codec<?> codec = codec(field, field.getType());
+            if (codec != null)
+                return new Property(Kind.PRIMITIVE, field, accessor, codec);
+            else if (field.isAnnotationPresent(RedObj.class))
+                return new Property(Kind.OBJECT, field, accessor, null);
+        }
+
+        return null;
+    }
+
+
+    // codec of a field or of its list elements, null if the field holds no value
+    private static Codec<?> codec(Field field, Class<?> type) {
+
+        if (field.isAnnotationPresent(RedStr.class))
+            return Codecs.of(String.class);
+        else if (field.isAnnotationPresent(RedInt.class))
+            return Codecs.of(Integer.class);
+        else if (field.isAnnotationPresent(RedBool.class))
+            return Codecs.of(Boolean.class);
+        else if (!field.isAnnotationPresent(RedVal.class))
+            return null;
+
+        Class<? extends Codec<?>> custom = field.getAnnotation(RedVal.class).codec();
+        if (custom != RedVal.Registered.class) {
+            try {
+                return custom.getDeclaredConstructor().newInstance();
+            } catch (ReflectiveOperationException e) {
+                throw new IllegalArgumentException(field + ": cannot create " + custom.getName(), e);
+            }
+        }
+
+        if (type == null)
+            throw new IllegalArgumentException(field + ": list element type unknown, declare it or name a codec");
+        return Codecs.of(type);
+    }
+
+    /* the codec was picked for the type the field holds, so it takes every
+    value the accessor hands it. the only unchecked cast on codecs */
+    @SuppressWarnings("unchecked")
+    private static Codec<Object> values(Codec<?> codec) {
+        return (Codec<Object>) codec;
+    }
+
+    private static Class<?> elementType(Field field) {
+
+        Type generic = field.getGenericType();
+        if (generic instanceof ParameterizedType) {
+            Type[] args = ((ParameterizedType) generic).getActualTypeArguments();
+            if (args.length == 1 && args[0] instanceof Class)
+                return (Class<?>) args[0];
+        }
+        return null;
+    }
+
+
+    public String getType() {
+        return type;
+    }
+
+    public List<Property> getProperties() {
+        return properties;
+    }
+
+    public List<Composite> getComposites() {
+        return composites;
+    }
+
+    public Property getProperty(String attr) {
+        for (Property property : properties) {
+            if (property.attr.equals(attr))
+                return property;
+        }
+        return null;
+    }
+
+
+    // one mapped field, with everything a mapper needs precomputed
+    public final class Property {
+
+        public final Kind kind;
+        public final String attr;
+        public final byte[] attrBytes;
+        public final Index.Type index;
+        public final String indexKey;
+        // false when the field is stored but has no index of its own, see RedIndexed
+        public final boolean indexed;
+        public final Accessor accessor;
+
+        public final Codec<Object> codec;
+
+        // declared field type, referenced objects are loaded into new instances of it
+        public final Class<?> fieldType;
+        private final Constructor<?> constructor;
+
+        Property(Kind kind, Field field, Accessor accessor, Codec<?> codec) {
+            this.kind = kind;
+            this.fieldType = field.getType();
+            this.constructor = kind == Kind.OBJECT ? constructor(fieldType) : null;
+            this.attr = field.getName();
+            this.attrBytes = attr.getBytes();
+            this.index = kind == Kind.PRIMITIVE ? indexType(field) : Index.Type.SCORE;
+            this.indexKey = (index == Index.Type.LEX ? "lex:" : "index:") + type + ":" + attr;
+            this.indexed = kind != Kind.OBJECT && indexed(field, index);
+            this.accessor = accessor;
+            this.codec = values(codec);
+        }
+
+        Object newInstance() {
+
+            if (constructor == null)
+                throw new IllegalStateException(fieldType.getName() + " needs a public no argument constructor");
+            try {
+                return constructor.newInstance();
+            } catch (ReflectiveOperationException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+    }
+
+
+    // composite index of some fields, see RedComposite
+    public final class Composite {
+
+        public final List<Property> properties;
+        public final String indexKey;
+
+        Composite(List<Property> properties) {
+            this.properties = Collections.unmodifiableList(properties);
+            StringBuilder key = new StringBuilder("composite:").append(type);
+            for (Property property : properties) {
+                key.append(':').append(property.attr);
+            }
+            this.indexKey = key.toString();
+        }
+    }
+
+
+    private static Constructor<?> constructor(Class<?> type) {
+
+        try {
+            return type.getConstructor();
+        } catch (NoSuchMethodException e) {
+            return null;
+        }
+    }
+
+
+    // the field's own RedIndexed decides, a LEX or SET index asks for one, otherwise the class default
+    private boolean indexed(Field field, Index.Type index) {
+
+        RedIndexed explicit = field.getAnnotation(RedIndexed.class);
+        if (explicit == null)
+            return index != Index.Type.SCORE || indexedByDefault;
+        if (!explicit.value() && index != Index.Type.SCORE)
+            throw new IllegalArgumentException(field + ": " + index + " index on a field that is not indexed");
+        return explicit.value();
+    }
+
+
+    private static Index.Type indexType(Field field) {
+
+        if (field.isAnnotationPresent(RedStr.class))
+            return field.getAnnotation(RedStr.class).index();
+
+        Index.Type type = Index.Type.SCORE;
+        if (field.isAnnotationPresent(RedInt.class))
+            type = field.getAnnotation(RedInt.class).index();
+        else if (field.isAnnotationPresent(RedBool.class))
+            type = field.getAnnotation(RedBool.class).index();
+        else if (field.isAnnotationPresent(RedVal.class))
+            type = field.getAnnotation(RedVal.class).index();
+
+        if (type == Index.Type.LEX)
+            throw new IllegalArgumentException(field + ": LEX index needs a @RedStr field");
+        return type;
+    }
+
+
+    // field access without going through Field.get / Field.set on every call
+    public interface Accessor {
+        Object get(Object target);
+        void set(Object target, Object value);
+    }
+
+
+    // implemented by the mappers redjava-processor generates at compile time
+    public interface Generated {
+        Accessor accessor(String attr);
+    }
+
+
+    private static Generated generated(Class<?> cls) {
+
+        try {
+            Class<?> generated = Class.forName(cls.getName() + "RedMapper", true, cls.getClassLoader());
+            if (Generated.class.isAssignableFrom(generated))
+                return (Generated) generated.getDeclaredConstructor().newInstance();
+        } catch (ClassNotFoundException e) {
+            // no generated mapper on the classpath, use reflection
+        } catch (ReflectiveOperationException e) {
+            e.printStackTrace();
+        }
+        return null;
+    }
+
+
+    static Accessor accessor(Field field) {
+
+        try {
+            MethodHandles.Lookup lookup = MethodHandles.publicLookup();
+
+            MethodHandle getter = lookup.unreflectGetter(field)
+                    .asType(MethodType.methodType(Object.class, Object.class));
+
+            MethodHandle setter = null;
+            if (!Modifier.isFinal(field.getModifiers()))
+                setter = lookup.unreflectSetter(field)
+                        .asType(MethodType.methodType(void.class, Object.class, Object.class));
+
+            return new HandleAccessor(getter, setter);
+
+        } catch (IllegalAccessException e) {
+            // the declaring class is not public, fall back to plain reflection
+            field.setAccessible(true);
+            return new ReflectiveAccessor(field);
+        }
+    }
+
+
+    private static final class HandleAccessor implements Accessor {
+
+        private final MethodHandle getter;
+        private final MethodHandle setter;
+
+        HandleAccessor(MethodHandle getter, MethodHandle setter) {
+            this.getter = getter;
+            this.setter = setter;
+        }
+
+        @Override
+        public Object get(Object target) {
+            try {
+                return (Object) getter.invokeExact(target);
+            } catch (RuntimeException e) {
+                throw e;
+            } catch (Throwable e) {
+                throw new IllegalStateException(e);
+            }
+        }
+
+        @Override
+        public void set(Object target, Object value) {
+            if (setter == null)
+                throw new IllegalStateException("field is final");
+            try {
+                setter.invokeExact(target, value);
+            } catch (RuntimeException e) {
+                throw e;
+            } catch (Throwable e) {
+                throw new IllegalStateException(e);
+            }
+        }
+    }
+
+
+    private static final class ReflectiveAccessor implements Accessor {
+
+        private final Field field;
+
+        ReflectiveAccessor(Field field) {
+            this.field = field;
+        }
+
+        @Override
+        public Object get(Object target) {
+            try {
+                return field.get(target);
+            } catch (IllegalAccessException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+
+        @Override
+        public void set(Object target, Object value) {
+            try {
+                field.set(target, value);
+            } catch (IllegalAccessException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+    }
+}
@@ -0,0 +1,85 @@
+package com.nosqlcode.redjava;
+
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.exceptions.JedisDataException;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.List;
+
+/**
+ * A Lua script run by its SHA1 digest.
+ *
+ * The digest is computed locally, so a server that already has the script
+ * cached only receives EVALSHA. On NOSCRIPT the full source is sent once
+ * with EVAL, which also caches it on that server.
+ *
+ * A script can come with a Java version of itself, which is what runs on
+ * a local store, see Pool.connectLocal.
+ */
+
+public class Script {
+
+
+    // the same script in Java, for stores that run no Lua
+    interface Local {
+        Object run(Store store, List<String> keys, List<String> args);
+    }
+
+    private final String source;
+    private final String sha;
+    private final Local local;
+
+
+    public Script(String source) {
+        this(source, null);
+    }
+
+    Script(String source, Local local) {
+        this.source = source;
+        this.sha = sha1(source);
+        this.local = local;
+    }
+
+
+    public Object eval(Jedis jedis, List<String> keys, List<String> args) {
+
+        if (jedis instanceof LocalConnection) {
+            if (local == null)
+                throw new UnsupportedOperationException("script has no version for a local store");
+            return local.run(((LocalConnection) jedis).store, keys, args);
+        }
+
+        try {
+            return jedis.evalsha(sha, keys, args);
+        } catch (JedisDataException e) {
+            if (e.getMessage() == null || !e.getMessage().startsWith("NOSCRIPT"))
+                throw e;
+            return jedis.eval(source, keys, args);
+        }
+    }
+
+    public String getSha() {
+        return sha;
+    }
+
+    public String getSource() {
+        return source;
+    }
+
+
+    private static String sha1(String source) {
+
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-1");
+            StringBuilder hex = new StringBuilder();
+            for (byte b : digest.digest(source.getBytes(StandardCharsets.UTF_8))) {
+                hex.append(String.format("%02x", b));
+            }
+            return hex.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
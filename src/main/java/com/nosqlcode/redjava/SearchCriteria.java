@@ -1,6 +1,9 @@
 package com.nosqlcode.redjava;
 
 import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Set;
 
 /**
  * Created by thomas on 4/5/14.
@@ -10,17 +13,53 @@ public class SearchCriteria {
 
     private ArrayList<Qualifer> qualifers = new ArrayList<>();
 
+    // model the attribute based qualifiers below refer to
+    private Schema schema;
+
+
+    public SearchCriteria() {
+    }
+
+    public SearchCriteria(Class<?> model) {
+        this.schema = Schema.of(model);
+    }
+
+
+    // how a qualifier is matched, see Mapper.Finder
+    public enum Kind { SCORE, EQUAL, PREFIX, RANGE, SET, COMPOSITE }
+
     public class Qualifer {
         public String indexKey;
         public Double score;
 
+        public Kind kind;
+        public String attr;
+        public String min, max;
+
+        // compared value of an equality, as in Index.value, null for other qualifiers
+        public String value;
+
         Qualifer(String indexKey, Double score) {
             this.indexKey = indexKey;
             this.score = score;
+            this.kind = Kind.SCORE;
+            this.min = Double.toString(score);
+            this.max = this.min;
+        }
+
+        Qualifer(String indexKey, Kind kind, String attr, String min, String max) {
+            this.indexKey = indexKey;
+            this.kind = kind;
+            this.attr = attr;
+            this.min = min;
+            this.max = max;
         }
 
         public void print() {
-            System.out.println(indexKey + "\t" + score);
+            if (kind == Kind.SCORE)
+                System.out.println(indexKey + "\t" + min + "\t" + max);
+            else
+                System.out.println(indexKey + "\t" + kind + "\t" + min + "\t" + max);
         }
     }
 
@@ -28,7 +67,147 @@ public class SearchCriteria {
         qualifers.add(new Qualifer(indexKey, score));
     }
 
+    void addQualifer(String indexKey, Kind kind, String attr, String min, String max) {
+        qualifers.add(new Qualifer(indexKey, kind, attr, min, max));
+    }
+
     public ArrayList<Qualifer> getQualifiers() {
         return qualifers;
     }
+
+
+    // attr equals value
+    public SearchCriteria equalTo(String attr, Object value) {
+
+        Schema.Property property = mapped(attr);
+        if (!property.indexed && !composed(property))
+            throw new IllegalArgumentException("no index for " + attr);
+        equality(property, value);
+        return this;
+    }
+
+    /* the value is kept with the qualifier, equalities can then be answered
+    by a composite index. one on a field without an index of its own has no
+    key and must be, see plan */
+    void equality(Schema.Property property, Object value) {
+
+        String string = Index.value(value);
+        Qualifer qualifer;
+        if (!property.indexed)
+            qualifer = new Qualifer(null, Kind.EQUAL, property.attr, string, null);
+        else if (property.index == Index.Type.LEX)
+            qualifer = new Qualifer(property.indexKey, Kind.EQUAL, property.attr, string, null);
+        else if (property.index == Index.Type.SET)
+            qualifer = new Qualifer(Index.setKey(property.indexKey, string), Kind.SET, property.attr, "", null);
+        else {
+            qualifer = new Qualifer(property.indexKey, property.codec.score(value));
+            qualifer.attr = property.attr;
+        }
+        qualifer.value = string;
+        qualifers.add(qualifer);
+    }
+
+    // attr starts with prefix, needs a lexicographic index
+    public SearchCriteria startsWith(String attr, String prefix) {
+
+        Schema.Property property = indexed(attr);
+        if (property.index != Index.Type.LEX)
+            throw new IllegalArgumentException(attr + " has no lexicographic index");
+        addQualifer(property.indexKey, Kind.PREFIX, attr, prefix, null);
+        return this;
+    }
+
+    // from <= attr <= to, either bound may be null to leave that side open
+    public SearchCriteria between(String attr, Object from, Object to) {
+
+        Schema.Property property = indexed(attr);
+        if (property.index == Index.Type.SET)
+            throw new IllegalArgumentException(attr + " has an equality only index");
+        if (property.index == Index.Type.LEX)
+            addQualifer(property.indexKey, Kind.RANGE, attr,
+                    from == null ? "" : (String) from, to == null ? "" : (String) to);
+        else
+            addQualifer(property.indexKey, Kind.SCORE, attr,
+                    from == null ? "-inf" : Double.toString(property.codec.score(from)),
+                    to == null ? "+inf" : Double.toString(property.codec.score(to)));
+        return this;
+    }
+
+    /* the qualifiers to match for the model, with the equalities on all
+    fields of a composite index replaced by one prefix lookup in it. the
+    composites with most fields are tried first, an equality on a field
+    without an index of its own has to be covered by one. only the built
+    composites are used, see Index.buildComposites */
+    List<Qualifer> plan(Schema model, Set<String> built) {
+
+        List<Schema.Composite> composites = new ArrayList<>();
+        for (Schema.Composite composite : model.getComposites()) {
+            if (built.contains(composite.indexKey))
+                composites.add(composite);
+        }
+        composites.sort(Comparator.comparingInt((Schema.Composite c) -> c.properties.size()).reversed());
+
+        List<Qualifer> rest = new ArrayList<>(qualifers);
+        List<Qualifer> plan = new ArrayList<>();
+        for (Schema.Composite composite : composites) {
+
+            List<Qualifer> used = new ArrayList<>();
+            List<String> values = new ArrayList<>();
+            for (Schema.Property property : composite.properties) {
+                Qualifer equality = equality(rest, property.attr);
+                if (equality == null)
+                    break;
+                used.add(equality);
+                values.add(equality.value);
+            }
+            if (used.size() == composite.properties.size()) {
+                rest.removeAll(used);
+                plan.add(new Qualifer(composite.indexKey, Kind.COMPOSITE, null, Index.compositePrefix(values), null));
+            }
+        }
+        for (Qualifer qualifer : rest) {
+            if (qualifer.indexKey == null && composites.size() < model.getComposites().size())
+                throw new IllegalStateException("no index for " + qualifer.attr
+                        + " until its composite index is built, see Index.buildComposites");
+            if (qualifer.indexKey == null)
+                throw new IllegalArgumentException("no index for " + qualifer.attr + ", alone or in a composite");
+        }
+        plan.addAll(rest);
+        return plan;
+    }
+
+    private static Qualifer equality(List<Qualifer> qualifers, String attr) {
+        for (Qualifer qualifer : qualifers) {
+            if (qualifer.value != null && attr.equals(qualifer.attr))
+                return qualifer;
+        }
+        return null;
+    }
+
+    private Schema.Property indexed(String attr) {
+
+        Schema.Property property = mapped(attr);
+        if (!property.indexed)
+            throw new IllegalArgumentException("no index for " + attr);
+        return property;
+    }
+
+    private boolean composed(Schema.Property property) {
+        for (Schema.Composite composite : schema.getComposites()) {
+            if (composite.properties.contains(property))
+                return true;
+        }
+        return false;
+    }
+
+    private Schema.Property mapped(String attr) {
+
+        if (schema == null)
+            throw new IllegalStateException("construct with the model class to query by attribute");
+
+        Schema.Property property = schema.getProperty(attr);
+        if (property == null || property.kind == Schema.Kind.OBJECT)
+            throw new IllegalArgumentException("no index for " + attr);
+        return property;
+    }
 }
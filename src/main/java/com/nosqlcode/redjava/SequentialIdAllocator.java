@@ -0,0 +1,42 @@
+package com.nosqlcode.redjava;
+
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.Pipeline;
+import redis.clients.jedis.Response;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Default allocator: one INCRBY per counter on every call, all counters
+ * pipelined into a single round trip. Ids are dense and in save order.
+ */
+
+public class SequentialIdAllocator implements IdAllocator {
+
+
+    @Override
+    public Map<String, long[]> allocate(Jedis jedis, Map<String, Integer> counts) {
+
+        Pipeline pipe = jedis.pipelined();
+        Map<String, Response<Long>> ranges = new HashMap<>();
+        for (Map.Entry<String, Integer> counter : counts.entrySet()) {
+            ranges.put(counter.getKey(), pipe.incrBy(counter.getKey(), counter.getValue()));
+        }
+        Mapper.sync(pipe);
+
+        Map<String, long[]> ids = new HashMap<>();
+        for (Map.Entry<String, Integer> counter : counts.entrySet()) {
+
+            int count = counter.getValue();
+            long first = ranges.get(counter.getKey()).get() - count + 1;
+
+            long[] range = new long[count];
+            for (int i = 0; i < count; i++) {
+                range[i] = first + i;
+            }
+            ids.put(counter.getKey(), range);
+        }
+        return ids;
+    }
+}
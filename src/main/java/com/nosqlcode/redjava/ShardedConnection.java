@@ -0,0 +1,92 @@
+package com.nosqlcode.redjava;
+
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.Pipeline;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.IntFunction;
+
+/**
+ * What Pool.getJedis returns for a sharded pool: one connection to every
+ * node, borrowed and returned together.
+ *
+ * Its pipelines route every command to the node owning the key, see
+ * ShardedPipeline. Commands sent on the connection itself, id counters
+ * and other global state, all go to the first node.
+ */
+
+final class ShardedConnection extends Jedis {
+
+
+    // runs the per node parts of a scatter, the caller takes the first node itself
+    private static final ExecutorService SCATTER = Executors.newCachedThreadPool(task -> {
+        Thread thread = new Thread(task, "redjava-scatter");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    final Shards shards;
+    final Jedis[] nodes;
+
+
+    ShardedConnection(Shards shards, Jedis[] nodes) {
+
+        super(nodes[0].getClient().getHost(), nodes[0].getClient().getPort());
+        this.shards = shards;
+        this.nodes = nodes;
+        this.client = nodes[0].getClient();
+    }
+
+
+    @Override
+    public Pipeline pipelined() {
+        return new ShardedPipeline(this);
+    }
+
+
+    // the connections a query has to visit, the one given unless it is sharded
+    static List<Jedis> nodes(Jedis jedis) {
+
+        if (jedis instanceof ShardedConnection)
+            return Arrays.asList(((ShardedConnection) jedis).nodes);
+        return Collections.singletonList(jedis);
+    }
+
+    /* run the task for every node index at once, the results are in node order.
+    every part has finished before this returns or throws, none is left
+    using a connection that goes back to the pool */
+    static <R> List<R> scatter(int nodes, IntFunction<R> task) {
+
+        List<CompletableFuture<R>> parts = new ArrayList<>(nodes);
+        for (int i = 1; i < nodes; i++) {
+            int node = i;
+            parts.add(CompletableFuture.supplyAsync(() -> task.apply(node), SCATTER));
+        }
+
+        List<R> results = new ArrayList<>(nodes);
+        RuntimeException failure = null;
+        try {
+            results.add(task.apply(0));
+        } catch (RuntimeException e) {
+            failure = e;
+        }
+        for (CompletableFuture<R> part : parts) {
+            try {
+                results.add(part.join());
+            } catch (CompletionException e) {
+                if (failure == null)
+                    failure = e.getCause() instanceof RuntimeException ? (RuntimeException) e.getCause() : e;
+            }
+        }
+        if (failure != null)
+            throw failure;
+        return results;
+    }
+}
@@ -0,0 +1,209 @@
+package com.nosqlcode.redjava;
+
+import redis.clients.jedis.Pipeline;
+import redis.clients.jedis.Response;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Pipeline over every node of a ShardedConnection. Each command is queued
+ * on a pipeline of the node that owns its key, sync sends them all.
+ *
+ * Object hashes and lists go where their key hashes to. Index keys exist
+ * on every node and hold the ids of that node only, so index commands are
+ * routed by the id they add or remove. Published messages and id counters
+ * go to the first node.
+ *
+ * Only the commands the mapper sends are routed, MULTI/EXEC is opened on
+ * every node taking part and is atomic per node only. Responses of a
+ * command split over several nodes are not kept, they are null.
+ */
+
+final class ShardedPipeline extends Pipeline {
+
+
+    private final ShardedConnection connection;
+    private final Pipeline[] pipes;
+    private boolean transaction;
+
+
+    ShardedPipeline(ShardedConnection connection) {
+        this.connection = connection;
+        this.pipes = new Pipeline[connection.nodes.length];
+    }
+
+
+    @Override
+    public Response<String> multi() {
+        transaction = true;
+        for (Pipeline pipe : pipes) {
+            if (pipe != null)
+                pipe.multi();
+        }
+        return null;
+    }
+
+    @Override
+    public Response<List<Object>> exec() {
+        transaction = false;
+        for (Pipeline pipe : pipes) {
+            if (pipe != null)
+                pipe.exec();
+        }
+        return null;
+    }
+
+    // the nodes are waited for at the same time, the slowest one sets the round trip
+    @Override
+    public void sync() {
+
+        List<Pipeline> used = used();
+        if (used.size() == 1) {
+            used.get(0).sync();
+        } else if (used.size() > 1) {
+            ShardedConnection.scatter(used.size(), i -> {
+                used.get(i).sync();
+                return null;
+            });
+        }
+    }
+
+    // the replies of every node in turn, not in the order the commands were queued
+    @Override
+    public List<Object> syncAndReturnAll() {
+
+        List<Pipeline> used = used();
+        if (used.size() <= 1)
+            return used.isEmpty() ? new ArrayList<>() : used.get(0).syncAndReturnAll();
+
+        List<Object> replies = new ArrayList<>();
+        for (List<Object> part : ShardedConnection.scatter(used.size(), i -> used.get(i).syncAndReturnAll())) {
+            replies.addAll(part);
+        }
+        return replies;
+    }
+
+    private List<Pipeline> used() {
+
+        List<Pipeline> used = new ArrayList<>(pipes.length);
+        for (Pipeline pipe : pipes) {
+            if (pipe != null)
+                used.add(pipe);
+        }
+        return used;
+    }
+
+
+    @Override
+    public Response<byte[]> hget(byte[] key, byte[] field) {
+        return on(key).hget(key, field);
+    }
+
+    @Override
+    public Response<String> hget(String key, String field) {
+        return on(key).hget(key, field);
+    }
+
+    @Override
+    public Response<Long> hset(byte[] key, byte[] field, byte[] value) {
+        return on(key).hset(key, field, value);
+    }
+
+    @Override
+    public Response<Long> hdel(String key, String... fields) {
+        return on(key).hdel(key, fields);
+    }
+
+    @Override
+    public Response<Long> del(String key) {
+        return on(key).del(key);
+    }
+
+    @Override
+    public Response<Long> llen(byte[] key) {
+        return on(key).llen(key);
+    }
+
+    @Override
+    public Response<List<byte[]>> lrange(byte[] key, long start, long end) {
+        return on(key).lrange(key, start, end);
+    }
+
+    @Override
+    public Response<Long> rpush(byte[] key, byte[]... values) {
+        return on(key).rpush(key, values);
+    }
+
+    @Override
+    public Response<Long> incrBy(String key, long increment) {
+        return on(0).incrBy(key, increment);
+    }
+
+    @Override
+    public Response<Long> publish(String channel, String message) {
+        return on(0).publish(channel, message);
+    }
+
+    @Override
+    public Response<Long> zadd(String key, double score, String member) {
+        return owner(member).zadd(key, score, member);
+    }
+
+    @Override
+    public Response<Long> zrem(String key, String... members) {
+        if (members.length == 1)
+            return owner(members[0]).zrem(key, members);
+        for (String member : members) {
+            owner(member).zrem(key, member);
+        }
+        return null;
+    }
+
+    @Override
+    public Response<Long> sadd(String key, String... members) {
+        if (members.length == 1)
+            return owner(members[0]).sadd(key, members);
+        for (String member : members) {
+            owner(member).sadd(key, member);
+        }
+        return null;
+    }
+
+    @Override
+    public Response<Long> srem(String key, String... members) {
+        if (members.length == 1)
+            return owner(members[0]).srem(key, members);
+        for (String member : members) {
+            owner(member).srem(key, member);
+        }
+        return null;
+    }
+
+
+    private Pipeline on(String key) {
+        return on(connection.shards.of(key));
+    }
+
+    private Pipeline on(byte[] key) {
+        return on(connection.shards.of(key));
+    }
+
+    // index members are ids, or "value\0id" in lexicographic indexes
+    private Pipeline owner(String member) {
+        int id = member.lastIndexOf('\0');
+        return on(id < 0 ? member : member.substring(id + 1));
+    }
+
+    private Pipeline on(int node) {
+
+        Pipeline pipe = pipes[node];
+        if (pipe == null) {
+            pipe = connection.nodes[node].pipelined();
+            if (transaction)
+                pipe.multi();
+            pipes[node] = pipe;
+        }
+        return pipe;
+    }
+}
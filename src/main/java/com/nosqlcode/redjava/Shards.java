@@ -0,0 +1,71 @@
+package com.nosqlcode.redjava;
+
+import redis.clients.util.Hashing;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Consistent hash ring over the nodes of a sharded pool.
+ *
+ * Every node owns many points of the ring, named after its address, so
+ * adding a node only moves the keys that land on its new points. A key
+ * containing a hash tag, the text between the first '{' and the following
+ * '}', is placed by the tag alone, which keeps the lists of an object on
+ * the node of the object itself.
+ */
+
+final class Shards {
+
+
+    private static final int POINTS_PER_NODE = 160;
+
+    private final TreeMap<Long, Integer> ring = new TreeMap<>();
+    private final int size;
+
+
+    // nodes by address, host:port
+    Shards(List<String> nodes) {
+
+        size = nodes.size();
+        for (int node = 0; node < nodes.size(); node++) {
+            for (int point = 0; point < POINTS_PER_NODE; point++) {
+                ring.put(Hashing.MURMUR_HASH.hash(nodes.get(node) + "*" + point), node);
+            }
+        }
+    }
+
+
+    int size() {
+        return size;
+    }
+
+    // index of the node owning the key
+    int of(String key) {
+
+        Map.Entry<Long, Integer> point = ring.ceilingEntry(Hashing.MURMUR_HASH.hash(tag(key)));
+        return point != null ? point.getValue() : ring.firstEntry().getValue();
+    }
+
+    int of(byte[] key) {
+        return of(new String(key, StandardCharsets.UTF_8));
+    }
+
+    // key tagged so it is stored next to the given one
+    static String colocate(String key, String with) {
+        return key + ":{" + tag(with) + "}";
+    }
+
+    static String tag(String key) {
+
+        int open = key.indexOf('{');
+        if (open >= 0) {
+            int close = key.indexOf('}', open + 1);
+            if (close > open + 1)
+                return key.substring(open + 1, close);
+        }
+        return key;
+    }
+}
@@ -0,0 +1,84 @@
+package com.nosqlcode.redjava;
+
+import java.util.List;
+import java.util.Set;
+
+/**
+ * The redis commands the mapper needs, for engines that are not a redis
+ * server. Every method behaves like the command of the same name: missing
+ * keys read as empty, collections that become empty are removed and a key
+ * holding another type is an error.
+ *
+ * Pool.connectLocal puts a store behind the usual connections, so Mapper,
+ * Finder and sessions run on it unchanged, see LocalConnection.
+ *
+ * @see MemoryStore
+ */
+
+public interface Store {
+
+
+    // hashes
+
+    byte[] hget(String key, String field);
+
+    long hset(String key, String field, byte[] value);
+
+    long hdel(String key, String... fields);
+
+
+    // lists, indexes from the end are negative
+
+    long rpush(String key, byte[]... values);
+
+    long llen(String key);
+
+    List<byte[]> lrange(String key, long start, long end);
+
+
+    // sets
+
+    long sadd(String key, String... members);
+
+    long srem(String key, String... members);
+
+    boolean sismember(String key, String member);
+
+    long scard(String key);
+
+    Set<String> sinter(String... keys);
+
+    /* up to count members after the given one, from the first when it is
+    null, in code point order. SSCAN resumed by member instead of cursor */
+    List<String> sscan(String key, String after, int count);
+
+
+    /* sorted sets. score bounds are inclusive, lexicographic bounds are
+    written as for ZRANGEBYLEX: [value, (value, - or +. a count below 0
+    takes everything after offset */
+
+    long zadd(String key, double score, String member);
+
+    long zrem(String key, String... members);
+
+    Double zscore(String key, String member);
+
+    List<String> zrange(String key, long start, long end);
+
+    long zcount(String key, double min, double max);
+
+    List<String> zrangeByScore(String key, double min, double max, int offset, int count, boolean reverse);
+
+    long zlexcount(String key, String min, String max);
+
+    List<String> zrangeByLex(String key, String min, String max, int offset, int count, boolean reverse);
+
+
+    // counters and keys
+
+    long incrBy(String key, long increment);
+
+    long del(String... keys);
+
+    void flushAll();
+}
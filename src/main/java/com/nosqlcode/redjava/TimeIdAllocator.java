@@ -0,0 +1,82 @@
+package com.nosqlcode.redjava;
+
+import redis.clients.jedis.Jedis;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Client generated, time ordered ids that need no round trip at all.
+ *
+ * Each id packs milliseconds since 2013-01-01 (41 bits), a node number
+ * (10 bits) and a per-millisecond sequence (12 bits). Ids are unique
+ * across JVMs as long as every JVM is given a different node number.
+ *
+ * More than 4096 ids in a millisecond, or a clock that steps back, make
+ * the allocator run ahead of the clock; it never waits for it to catch up.
+ */
+
+public class TimeIdAllocator implements IdAllocator {
+
+
+    private static final long EPOCH = 1356998400000L;
+
+    private static final int NODE_BITS = 10;
+    private static final int SEQUENCE_BITS = 12;
+
+    public static final int MAX_NODE = (1 << NODE_BITS) - 1;
+    private static final long MAX_SEQUENCE = (1 << SEQUENCE_BITS) - 1;
+
+
+    private final long node;
+    private long lastMillis = -1;
+    private long sequence;
+
+
+    public TimeIdAllocator(int node) {
+
+        if (node < 0 || node > MAX_NODE)
+            throw new IllegalArgumentException("node must be between 0 and " + MAX_NODE);
+        this.node = node;
+    }
+
+
+    @Override
+    public Map<String, long[]> allocate(Jedis jedis, Map<String, Integer> counts) {
+
+        Map<String, long[]> ids = new HashMap<>();
+        for (Map.Entry<String, Integer> counter : counts.entrySet()) {
+
+            long[] range = new long[counter.getValue()];
+            for (int i = 0; i < range.length; i++) {
+                range[i] = next();
+            }
+            ids.put(counter.getKey(), range);
+        }
+        return ids;
+    }
+
+    private synchronized long next() {
+
+        long millis = System.currentTimeMillis();
+
+        // never go back in time, keep counting on the last millisecond instead
+        if (millis < lastMillis)
+            millis = lastMillis;
+
+        if (millis == lastMillis) {
+            sequence = (sequence + 1) & MAX_SEQUENCE;
+            // sequence exhausted for this millisecond, go on with the next one without
+            // waiting for the clock, which may have stepped back a long way
+            if (sequence == 0)
+                millis = lastMillis + 1;
+        } else {
+            sequence = 0;
+        }
+        lastMillis = millis;
+
+        return ((millis - EPOCH) << (NODE_BITS + SEQUENCE_BITS))
+                | (node << SEQUENCE_BITS)
+                | sequence;
+    }
+}
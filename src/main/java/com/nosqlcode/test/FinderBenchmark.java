@@ -0,0 +1,63 @@
+package com.nosqlcode.test;
+
+import com.nosqlcode.redjava.Mapper;
+import com.nosqlcode.redjava.Pool;
+import com.nosqlcode.redjava.SearchCriteria;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Network round trips and time per result of Finder.find().
+ *
+ * Run against a local redis-server on 127.0.0.1:6379, the optional
+ * argument is the number of matching objects (default 1000).
+ */
+
+public class FinderBenchmark {
+
+
+    public static void main(String[] args) throws Exception {
+
+
+        int results = args.length > 0 ? Integer.parseInt(args[0]) : 1000;
+
+        RoundTripProxy proxy = new RoundTripProxy("127.0.0.1", 6379);
+        Pool.connect("127.0.0.1", proxy.getPort());
+
+
+        List<Customer> customers = new ArrayList<>();
+        for (int i = 0; i < results; i++) {
+            customers.add(new Customer("first" + i, "benchmark", "one", "two"));
+        }
+        List<String> ids = Mapper.saveAll(customers);
+
+
+        Customer query = new Customer();
+        query.lastName = "benchmark";
+        Mapper mapper = new Mapper(query);
+        SearchCriteria criteria = mapper.getCriteria();
+        mapper.close();
+
+        Mapper.Finder<Customer> finder = new Mapper.Finder<Customer>(criteria) {
+            @Override
+            public Customer newInstance() {
+                return new Customer();
+            }
+        };
+
+
+        long trips = proxy.getTrips();
+        long start = System.nanoTime();
+        int found = finder.find().size();
+        long elapsed = System.nanoTime() - start;
+        trips = proxy.getTrips() - trips;
+
+        System.out.printf("%d results %10.1f us/result %8.3f round trips/result%n",
+                found, elapsed / 1000.0 / found, (double) trips / found);
+
+
+        Mapper.deleteAll(ids, Customer::new);
+        Pool.release();
+    }
+}
@@ -0,0 +1,81 @@
+package com.nosqlcode.test;
+
+import com.nosqlcode.redjava.Mapper;
+import com.nosqlcode.redjava.Pool;
+
+import java.lang.management.ManagementFactory;
+
+/**
+ * Rough per-operation cost of the mapper hot path: time and bytes
+ * allocated per Mapper construction, save and load.
+ *
+ * Run against a local redis-server on 127.0.0.1:6379.
+ */
+
+public class MapperBenchmark {
+
+
+    private static final int WARMUP = 20000;
+    private static final int ITERATIONS = 100000;
+
+
+    private interface Op {
+        void run(int i);
+    }
+
+
+    public static void main(String[] args) {
+
+
+        Pool.connect("127.0.0.1", 6379);
+
+
+        Address address = new Address("123 fake street", "a city", "89764", "AA");
+        Mapper saved = new Mapper(address);
+        saved.save();
+        String id = saved.getId();
+        saved.close();
+
+
+        measure("construct", i -> {
+            Mapper mapper = new Mapper(new Customer("thomas", "silva"));
+            mapper.close();
+        });
+
+        measure("save", i -> {
+            Mapper mapper = new Mapper(address, id);
+            mapper.save();
+            mapper.close();
+        });
+
+        measure("load", i -> {
+            Mapper mapper = new Mapper(new Address(), id);
+            mapper.load();
+            mapper.close();
+        });
+
+
+        Pool.release();
+    }
+
+
+    private static void measure(String name, Op op) {
+
+        for (int i = 0; i < WARMUP; i++)
+            op.run(i);
+
+        com.sun.management.ThreadMXBean threads =
+                (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long thread = Thread.currentThread().getId();
+
+        long bytes = threads.getThreadAllocatedBytes(thread);
+        long start = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++)
+            op.run(i);
+        long elapsed = System.nanoTime() - start;
+        bytes = threads.getThreadAllocatedBytes(thread) - bytes;
+
+        System.out.printf("%-10s %10.1f ns/op %10.1f B/op%n",
+                name, (double) elapsed / ITERATIONS, (double) bytes / ITERATIONS);
+    }
+}
@@ -0,0 +1,101 @@
+package com.nosqlcode.test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * TCP proxy in front of redis that counts network round trips: every
+ * time a client sends after having received a reply (or sends for the
+ * first time) is one trip, no matter how many commands were pipelined.
+ */
+
+public class RoundTripProxy {
+
+
+    private final ServerSocket server;
+    private final String host;
+    private final int port;
+    private final AtomicLong trips = new AtomicLong();
+
+
+    public RoundTripProxy(String host, int port) throws IOException {
+
+        this.host = host;
+        this.port = port;
+        server = new ServerSocket(0);
+
+        Thread acceptor = new Thread(this::accept, "round-trip-proxy");
+        acceptor.setDaemon(true);
+        acceptor.start();
+    }
+
+
+    public int getPort() {
+        return server.getLocalPort();
+    }
+
+    public long getTrips() {
+        return trips.get();
+    }
+
+
+    private void accept() {
+
+        while (true) {
+            try {
+                Socket client = server.accept();
+                Socket upstream = new Socket(host, port);
+                client.setTcpNoDelay(true);
+                upstream.setTcpNoDelay(true);
+
+                boolean[] waiting = new boolean[1];
+                pump(client, upstream, () -> {
+                    synchronized (waiting) {
+                        if (!waiting[0])
+                            trips.incrementAndGet();
+                        waiting[0] = true;
+                    }
+                });
+                pump(upstream, client, () -> {
+                    synchronized (waiting) {
+                        waiting[0] = false;
+                    }
+                });
+            } catch (IOException e) {
+                return;
+            }
+        }
+    }
+
+    private void pump(Socket from, Socket to, Runnable onData) {
+
+        Thread thread = new Thread(() -> {
+            byte[] buffer = new byte[64 * 1024];
+            try {
+                InputStream in = from.getInputStream();
+                OutputStream out = to.getOutputStream();
+                int read;
+                while ((read = in.read(buffer)) >= 0) {
+                    onData.run();
+                    out.write(buffer, 0, read);
+                    out.flush();
+                }
+            } catch (IOException e) {
+                // connection closed
+            } finally {
+                try {
+                    from.close();
+                    to.close();
+                } catch (IOException e) {
+                    // already closed
+                }
+            }
+        });
+        thread.setDaemon(true);
+        thread.start();
+    }
+}
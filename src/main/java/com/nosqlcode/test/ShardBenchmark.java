@@ -0,0 +1,81 @@
+package com.nosqlcode.test;
+
+import com.nosqlcode.redjava.Mapper;
+import com.nosqlcode.redjava.Pool;
+import com.nosqlcode.redjava.PoolConfig;
+import redis.clients.jedis.Jedis;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Objects saved and loaded per second with one shard, then two, and so on
+ * up to one shard per given port. Every thread saves a batch with saveAll
+ * and loads it back with loadAll, over and over.
+ *
+ * Start a redis-server on every port first, they are flushed. The
+ * arguments are the ports, default 6379 6380 6381 6382.
+ */
+
+public class ShardBenchmark {
+
+
+    private static final int THREADS = 16;
+    private static final int BATCH = 100;
+    private static final long SECONDS = 5;
+
+
+    public static void main(String[] args) throws Exception {
+
+
+        int[] ports = args.length > 0 ? new int[args.length] : new int[]{6379, 6380, 6381, 6382};
+        for (int i = 0; i < args.length; i++)
+            ports[i] = Integer.parseInt(args[i]);
+
+
+        for (int shards = 1; shards <= ports.length; shards++) {
+
+            PoolConfig[] nodes = new PoolConfig[shards];
+            for (int i = 0; i < shards; i++) {
+                new Jedis("127.0.0.1", ports[i]).flushAll();
+                nodes[i] = new PoolConfig().host("127.0.0.1").port(ports[i]).maxTotal(THREADS).maxIdle(THREADS);
+            }
+            Pool.connectShards(nodes);
+
+            run(1);     // warm up
+            double perSecond = run(SECONDS);
+
+            System.out.printf("%d shards %12.0f objects/s%n", shards, perSecond);
+            Pool.release();
+        }
+    }
+
+
+    private static double run(long seconds) throws InterruptedException {
+
+        AtomicLong objects = new AtomicLong();
+        CountDownLatch done = new CountDownLatch(THREADS);
+        long end = System.nanoTime() + TimeUnit.SECONDS.toNanos(seconds);
+
+        for (int t = 0; t < THREADS; t++) {
+            new Thread(() -> {
+                while (System.nanoTime() < end) {
+
+                    List<Address> batch = new ArrayList<>(BATCH);
+                    for (int i = 0; i < BATCH; i++)
+                        batch.add(new Address("street" + i, "city" + (i % 10), "zip", "st"));
+
+                    List<String> ids = Mapper.saveAll(batch);
+                    Mapper.loadAll(ids, Address::new);
+                    objects.addAndGet(2 * BATCH);
+                }
+                done.countDown();
+            }).start();
+        }
+        done.await();
+        return objects.get() / (double) seconds;
+    }
+}
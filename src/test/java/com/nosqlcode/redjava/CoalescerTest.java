@@ -0,0 +1,144 @@
+package com.nosqlcode.redjava;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Batching of queued requests, run by hand instead of on a pool.
+ */
+
+public class CoalescerTest {
+
+
+    static final class Echo extends Coalescer.Request<String> {
+
+        final String value;
+
+        Echo(String value) {
+            this.value = value;
+        }
+    }
+
+
+    private final List<Runnable> tasks = new ArrayList<>();
+    private final List<List<Echo>> batches = new ArrayList<>();
+
+    @Before
+    public void connect() {
+        Pool.connectLocal(new MemoryStore());
+    }
+
+    @After
+    public void disconnect() {
+        Pool.release();
+    }
+
+
+    @Test
+    public void drainsQueuedRequestsTogether() throws Exception {
+
+        Coalescer<Echo> coalescer = new Coalescer<>(false, (jedis, requests) -> {
+            batches.add(new ArrayList<>(requests));
+            for (Echo request : requests)
+                request.future.complete(request.value.toUpperCase());
+        });
+
+        List<CompletableFuture<String>> futures = new ArrayList<>();
+        for (String value : new String[]{"a", "b", "c"})
+            futures.add(coalescer.submit(new Echo(value), tasks::add, true));
+        assertFalse(futures.get(0).isDone());
+
+        runTasks();
+        assertEquals(1, batches.size());
+        assertEquals(3, batches.get(0).size());
+        assertEquals("A", futures.get(0).get());
+        assertEquals("C", futures.get(2).get());
+    }
+
+    @Test
+    public void sendsUncoalescedRequestsAlone() throws Exception {
+
+        Coalescer<Echo> coalescer = new Coalescer<>(true, (jedis, requests) -> {
+            batches.add(new ArrayList<>(requests));
+            for (Echo request : requests)
+                request.future.complete(request.value);
+        });
+
+        CompletableFuture<String> first = coalescer.submit(new Echo("a"), tasks::add, false);
+        CompletableFuture<String> second = coalescer.submit(new Echo("b"), tasks::add, false);
+        runTasks();
+        assertEquals(2, batches.size());
+        assertEquals("a", first.get());
+        assertEquals("b", second.get());
+    }
+
+    @Test
+    public void sendsRequestsQueuedDuringABatch() throws Exception {
+
+        Coalescer<Echo> coalescer = new Coalescer<>(false, (jedis, requests) -> {
+            batches.add(new ArrayList<>(requests));
+            for (Echo request : requests)
+                request.future.complete(request.value);
+        });
+
+        CompletableFuture<String> first = coalescer.submit(new Echo("a"), tasks::add, true);
+        tasks.remove(0).run();
+        assertEquals("a", first.get());
+
+        // queued while no drain runs, a new one is scheduled
+        CompletableFuture<String> second = coalescer.submit(new Echo("b"), tasks::add, true);
+        assertEquals(1, tasks.size());
+        runTasks();
+        assertEquals("b", second.get());
+        assertEquals(2, batches.size());
+    }
+
+    @Test
+    public void failsTheWholeBatch() throws Exception {
+
+        IllegalStateException failure = new IllegalStateException("connection lost");
+        Coalescer<Echo> coalescer = new Coalescer<>(false, (jedis, requests) -> {
+            batches.add(requests);
+            requests.get(0).future.complete(requests.get(0).value);
+            if (batches.size() == 1)
+                throw failure;
+        });
+
+        CompletableFuture<String> first = coalescer.submit(new Echo("a"), tasks::add, true);
+        CompletableFuture<String> second = coalescer.submit(new Echo("b"), tasks::add, true);
+        runTasks();
+
+        // completed before the failure, kept
+        assertEquals("a", first.get());
+        assertTrue(second.isCompletedExceptionally());
+        try {
+            second.get();
+            fail();
+        } catch (ExecutionException e) {
+            assertSame(failure, e.getCause());
+        }
+
+        // the next batch goes out as usual
+        CompletableFuture<String> again = coalescer.submit(new Echo("c"), tasks::add, true);
+        runTasks();
+        assertEquals("c", again.get());
+    }
+
+
+    private void runTasks() {
+        while (!tasks.isEmpty())
+            tasks.remove(0).run();
+    }
+}
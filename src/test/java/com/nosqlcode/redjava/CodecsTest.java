@@ -0,0 +1,169 @@
+package com.nosqlcode.redjava;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Built in codecs and the conversion of values stored by older versions.
+ */
+
+public class CodecsTest {
+
+
+    public enum Level { LOW, MEDIUM, HIGH }
+
+    public static class Account {
+
+        @RedInt
+        public Integer balance;
+
+        @RedVal
+        public Long total;
+
+        @RedInt
+        @RedIndexed(false)
+        public Integer pin;
+
+        public Account() {
+        }
+
+        Account(int balance, long total) {
+            this.balance = balance;
+            this.total = total;
+        }
+    }
+
+
+    private MemoryStore store;
+
+    @Before
+    public void connect() {
+        store = new MemoryStore();
+        Pool.connectLocal(store);
+    }
+
+    @After
+    public void disconnect() {
+        Pool.release();
+    }
+
+
+    @Test
+    public void roundTripsIntEdges() {
+        for (int value : new int[]{0, -1, 1, 63, -64, 64, -65, 1234, Integer.MIN_VALUE, Integer.MAX_VALUE})
+            assertEquals(Integer.valueOf(value), roundTrip(Integer.class, value));
+    }
+
+    @Test
+    public void roundTripsLongEdges() {
+        for (long value : new long[]{0, -1, 1, 63, -64, 5000000000L, -5000000000L, Long.MIN_VALUE, Long.MAX_VALUE})
+            assertEquals(Long.valueOf(value), roundTrip(Long.class, value));
+    }
+
+    @Test
+    public void zigzagKeepsSmallValuesShort() {
+
+        Codec<Long> codec = Codecs.of(Long.class);
+        assertEquals(1, codec.encode(0L).length);
+        assertEquals(1, codec.encode(-1L).length);
+        assertEquals(1, codec.encode(63L).length);
+        assertEquals(1, codec.encode(-64L).length);
+        assertEquals(2, codec.encode(64L).length);
+        assertEquals(2, codec.encode(-65L).length);
+        assertEquals(10, codec.encode(Long.MIN_VALUE).length);
+        assertEquals(10, codec.encode(Long.MAX_VALUE).length);
+    }
+
+    @Test
+    public void primitivesShareTheCodecOfTheirBox() {
+        assertTrue(Codecs.of(int.class) == Codecs.of(Integer.class));
+        assertTrue(Codecs.of(long.class) == Codecs.of(Long.class));
+    }
+
+    @Test
+    public void roundTripsEnumsByName() {
+
+        Codec<Level> codec = Codecs.of(Level.class);
+        assertArrayEquals("HIGH".getBytes(StandardCharsets.UTF_8), codec.encode(Level.HIGH));
+        assertEquals(Level.MEDIUM, roundTrip(Level.class, Level.MEDIUM));
+        assertEquals(2.0, codec.score(Level.HIGH), 0);
+    }
+
+    @Test
+    public void roundTripsInstants() {
+
+        for (Instant value : new Instant[]{Instant.EPOCH, Instant.ofEpochSecond(1400000000),
+                Instant.ofEpochSecond(1400000000, 123456789), Instant.ofEpochSecond(-86400, 1)})
+            assertEquals(value, roundTrip(Instant.class, value));
+        // whole seconds leave the nanos out
+        assertEquals(1, Codecs.of(Instant.class).encode(Instant.ofEpochSecond(1)).length);
+    }
+
+    @Test
+    public void roundTripsTheOtherBuiltIns() {
+
+        assertEquals(Boolean.TRUE, roundTrip(Boolean.class, true));
+        assertEquals(Boolean.FALSE, roundTrip(Boolean.class, false));
+        assertEquals(Double.valueOf(-0.5), roundTrip(Double.class, -0.5));
+        assertEquals(Double.valueOf(Double.MAX_VALUE), roundTrip(Double.class, Double.MAX_VALUE));
+        assertEquals("ol\u00e1 \uD83D\uDE00", roundTrip(String.class, "ol\u00e1 \uD83D\uDE00"));
+        assertArrayEquals(new byte[]{0, -1, 7}, roundTrip(byte[].class, new byte[]{0, -1, 7}));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void refusesTypesWithoutACodec() {
+        Codecs.of(StringBuilder.class);
+    }
+
+    @Test
+    public void migratesDecimalText() {
+
+        List<String> ids = Mapper.saveAll(Arrays.asList(new Account(7, 40), new Account(-1234, 5000000000L)));
+
+        // as written by a version that stored numbers as text
+        store.hset(ids.get(0), "balance", "7".getBytes(StandardCharsets.US_ASCII));
+        store.hset(ids.get(1), "balance", "-1234".getBytes(StandardCharsets.US_ASCII));
+        store.hset(ids.get(1), "total", "5000000000".getBytes(StandardCharsets.US_ASCII));
+
+        assertEquals(2, Codecs.migrateDecimal(Account.class, "balance"));
+        assertEquals(1, Codecs.migrateDecimal(Account.class, "total"));
+
+        Account first = new Account();
+        new Mapper(first, ids.get(0)).load();
+        Account second = new Account();
+        new Mapper(second, ids.get(1)).load();
+        assertEquals(Integer.valueOf(7), first.balance);
+        assertEquals(Long.valueOf(40), first.total);
+        assertEquals(Integer.valueOf(-1234), second.balance);
+        assertEquals(Long.valueOf(5000000000L), second.total);
+
+        // converted values are varints now and left alone
+        assertEquals(0, Codecs.migrateDecimal(Account.class, "balance"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void refusesFieldsWithoutAnIndex() {
+        Codecs.migrateDecimal(Account.class, "pin");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void failsOnDecimalText() {
+        Codecs.of(Integer.class).decode("1234".getBytes(StandardCharsets.US_ASCII));
+    }
+
+
+    private static <T> T roundTrip(Class<T> type, T value) {
+        Codec<T> codec = Codecs.of(type);
+        return codec.decode(codec.encode(value));
+    }
+}
@@ -0,0 +1,90 @@
+package com.nosqlcode.redjava;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Percentiles of the latency histogram against the exact ones.
+ */
+
+public class HistogramTest {
+
+
+    @Test
+    public void emptyHistogramReportsZero() {
+
+        Histogram histogram = new Histogram();
+        assertEquals(0, histogram.getCount());
+        assertEquals(0, histogram.getPercentileNanos(99));
+        assertEquals(0, histogram.getMeanNanos(), 0);
+    }
+
+    @Test
+    public void smallValuesAreExact() {
+
+        Histogram histogram = new Histogram();
+        for (long nanos = 0; nanos < 8; nanos++)
+            histogram.record(nanos);
+        assertEquals(0, histogram.getPercentileNanos(12.5));
+        assertEquals(3, histogram.getPercentileNanos(50));
+        assertEquals(6, histogram.getPercentileNanos(87.5));
+        assertEquals(7, histogram.getPercentileNanos(100));
+    }
+
+    @Test
+    public void percentilesStayWithinABucket() {
+
+        Histogram histogram = new Histogram();
+        Random random = new Random(42);
+        long[] values = new long[100000];
+        for (int i = 0; i < values.length; i++) {
+            // spread over six orders of magnitude
+            values[i] = (long) Math.pow(10, 2 + random.nextDouble() * 6);
+            histogram.record(values[i]);
+        }
+        Arrays.sort(values);
+
+        for (double percentile : new double[]{1, 25, 50, 90, 99, 99.9}) {
+            long exact = values[(int) Math.ceil(values.length * percentile / 100) - 1];
+            long reported = histogram.getPercentileNanos(percentile);
+            assertTrue(percentile + ": " + reported + " < " + exact, reported >= exact);
+            assertTrue(percentile + ": " + reported + " > " + exact, reported <= exact * 1.125);
+        }
+    }
+
+    @Test
+    public void percentilesNeverExceedTheMax() {
+
+        Histogram histogram = new Histogram();
+        histogram.record(1000);
+        histogram.record(1001);
+        assertEquals(1001, histogram.getMaxNanos());
+        assertEquals(1001, histogram.getPercentileNanos(100));
+        assertEquals(1001, histogram.getP999Nanos());
+    }
+
+    @Test
+    public void keepsCountMeanAndMax() {
+
+        Histogram histogram = new Histogram();
+        histogram.record(100);
+        histogram.record(300);
+        histogram.record(-5);
+        histogram.record(Long.MAX_VALUE / 4);
+        assertEquals(4, histogram.getCount());
+        assertEquals(Long.MAX_VALUE / 4, histogram.getMaxNanos());
+        assertEquals(Long.MAX_VALUE / 4, histogram.getPercentileNanos(100));
+
+        histogram.reset();
+        histogram.record(100);
+        histogram.record(300);
+        assertEquals(2, histogram.getCount());
+        assertEquals(200, histogram.getMeanNanos(), 0);
+        assertEquals(300, histogram.getMaxNanos());
+    }
+}
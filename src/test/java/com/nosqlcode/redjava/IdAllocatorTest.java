@@ -0,0 +1,153 @@
+package com.nosqlcode.redjava;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import redis.clients.jedis.Jedis;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Every allocator hands out unique ids, in the order its strategy promises.
+ */
+
+public class IdAllocatorTest {
+
+
+    private MemoryStore store;
+    private Jedis jedis;
+
+    @Before
+    public void connect() {
+        store = new MemoryStore();
+        Pool.connectLocal(store);
+        jedis = Pool.getJedis();
+    }
+
+    @After
+    public void disconnect() {
+        Pool.returnJedis(jedis);
+        Pool.release();
+    }
+
+
+    @Test
+    public void sequentialIdsAreDenseAndInOrder() {
+
+        IdAllocator allocator = new SequentialIdAllocator();
+        assertArrayOf(new long[]{1, 2, 3}, take(allocator, "a", 3));
+        assertArrayOf(new long[]{4, 5}, take(allocator, "a", 2));
+        assertArrayOf(new long[]{1}, take(allocator, "b", 1));
+    }
+
+    @Test
+    public void blocksAreReservedOnceAndHandedOutInOrder() {
+
+        IdAllocator allocator = new BlockIdAllocator(10);
+        assertArrayOf(new long[]{1, 2, 3}, take(allocator, "a", 3));
+        assertArrayOf(new long[]{4, 5, 6, 7}, take(allocator, "a", 4));
+        assertEquals(10, store.incrBy("a", 0));
+
+        // the rest of the block first, then what is still missing in one go
+        long[] ids = take(allocator, "a", 25);
+        assertEquals(8, ids[0]);
+        assertEquals(32, ids[24]);
+        assertEquals(32, store.incrBy("a", 0));
+    }
+
+    @Test
+    public void blocksOfSeveralJvmsDoNotOverlap() {
+
+        IdAllocator first = new BlockIdAllocator(5);
+        IdAllocator second = new BlockIdAllocator(5);
+        Set<Long> seen = new HashSet<>();
+        for (int i = 0; i < 20; i++) {
+            for (long id : take(i % 2 == 0 ? first : second, "a", 3))
+                assertTrue("duplicate " + id, seen.add(id));
+        }
+        // mixed with the sequential allocator on the same counter
+        for (long id : take(new SequentialIdAllocator(), "a", 7))
+            assertTrue("duplicate " + id, seen.add(id));
+    }
+
+    @Test
+    public void timeIdsAreUniqueAndIncreasing() {
+
+        IdAllocator allocator = new TimeIdAllocator(3);
+        long[] ids = take(allocator, "a", 10000);
+        for (int i = 1; i < ids.length; i++)
+            assertTrue(ids[i] > ids[i - 1]);
+        // node number sits above the 12 sequence bits
+        assertEquals(3, (ids[0] >> 12) & TimeIdAllocator.MAX_NODE);
+    }
+
+    @Test
+    public void timeIdsOfTwoNodesDoNotCollide() {
+
+        Set<Long> seen = new HashSet<>();
+        for (long id : take(new TimeIdAllocator(1), "a", 5000))
+            seen.add(id);
+        for (long id : take(new TimeIdAllocator(2), "a", 5000))
+            assertTrue("duplicate " + id, seen.add(id));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void refusesNodesOutOfRange() {
+        new TimeIdAllocator(TimeIdAllocator.MAX_NODE + 1);
+    }
+
+    @Test
+    public void concurrentCallersGetUniqueIds() throws Exception {
+
+        for (IdAllocator allocator : new IdAllocator[]{
+                new SequentialIdAllocator(), new BlockIdAllocator(7), new TimeIdAllocator(0)}) {
+
+            ExecutorService threads = Executors.newFixedThreadPool(4);
+            List<Future<long[]>> parts = new ArrayList<>();
+            for (int i = 0; i < 40; i++) {
+                parts.add(threads.submit(() -> {
+                    Jedis own = Pool.getJedis();
+                    try {
+                        return allocator.allocate(own, Collections.singletonMap("c", 50)).get("c");
+                    } finally {
+                        Pool.returnJedis(own);
+                    }
+                }));
+            }
+            Set<Long> seen = new HashSet<>();
+            for (Future<long[]> part : parts) {
+                for (long id : part.get())
+                    assertTrue(allocator + " duplicate " + id, seen.add(id));
+            }
+            threads.shutdown();
+            assertTrue(threads.awaitTermination(10, TimeUnit.SECONDS));
+            assertEquals(2000, seen.size());
+            store.del("c");
+        }
+    }
+
+
+    private long[] take(IdAllocator allocator, String counter, int count) {
+        Map<String, long[]> ids = allocator.allocate(jedis, Collections.singletonMap(counter, count));
+        assertEquals(count, ids.get(counter).length);
+        return ids.get(counter);
+    }
+
+    private static void assertArrayOf(long[] expected, long[] actual) {
+        assertEquals(expected.length, actual.length);
+        for (int i = 0; i < expected.length; i++)
+            assertEquals(expected[i], actual[i]);
+    }
+}
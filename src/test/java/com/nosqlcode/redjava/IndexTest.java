@@ -0,0 +1,94 @@
+package com.nosqlcode.redjava;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Index rebuilds on an in-process store.
+ */
+
+public class IndexTest {
+
+
+    public static class Member {
+
+        @RedStr(index = Index.Type.LEX)
+        public String name;
+
+        @RedStr(index = Index.Type.SET)
+        public String city;
+
+        public Member() {
+        }
+
+        Member(String name, String city) {
+            this.name = name;
+            this.city = city;
+        }
+    }
+
+
+    private MemoryStore store;
+
+    @Before
+    public void connect() {
+        store = new MemoryStore();
+        Pool.connectLocal(store);
+    }
+
+    @After
+    public void disconnect() {
+        Pool.release();
+    }
+
+
+    @Test
+    public void migratesScoreIndexes() {
+
+        List<String> ids = Mapper.saveAll(Arrays.asList(
+                new Member("ana", "lisbon"), new Member("andre", "porto"), new Member("bruno", "lisbon")));
+
+        // as saved before name and city had an index type of their own
+        for (String id : ids) {
+            store.zadd("index:Member:name", 0, id);
+            store.zadd("index:Member:city", 0, id);
+        }
+        store.del("lex:Member:name", "index:Member:city:lisbon", "index:Member:city:porto");
+
+        assertEquals(3, Index.migrate(Member.class, "name"));
+        assertEquals(3, Index.migrate(Member.class, "city"));
+
+        assertEquals(Arrays.asList("ana", "andre"), names(new SearchCriteria(Member.class).startsWith("name", "an")));
+        assertEquals(Arrays.asList("ana", "bruno"), names(new SearchCriteria(Member.class).equalTo("city", "lisbon")));
+        assertTrue(store.zrange("index:Member:name", 0, -1).isEmpty());
+        assertTrue(store.zrange("index:Member:city", 0, -1).isEmpty());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void refusesUnmappedFields() {
+        Index.migrate(Member.class, "age");
+    }
+
+
+    private static List<String> names(SearchCriteria criteria) {
+        List<String> names = new ArrayList<>();
+        for (Member member : new Mapper.Finder<Member>(criteria) {
+            @Override
+            public Member newInstance() {
+                return new Member();
+            }
+        }.find()) {
+            names.add(member.name);
+        }
+        names.sort(null);
+        return names;
+    }
+}
@@ -0,0 +1,280 @@
+package com.nosqlcode.redjava;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Save, load, find and delete on an in-process store, no redis server needed.
+ */
+
+public class MemoryStoreTest {
+
+
+    public static class Person {
+
+        @RedStr(index = Index.Type.LEX)
+        public String name;
+
+        @RedStr(index = Index.Type.SET)
+        public String city;
+
+        @RedInt
+        public Integer age;
+
+        @RedLst @RedStr
+        public List<String> tags;
+
+        @RedObj
+        public Person friend;
+
+        public Person() {
+        }
+
+        Person(String name, String city, int age) {
+            this.name = name;
+            this.city = city;
+            this.age = age;
+        }
+    }
+
+
+    @RedComposite({"city", "age"})
+    public static class Resident {
+
+        @RedStr(index = Index.Type.LEX)
+        public String city;
+
+        @RedInt
+        @RedIndexed(false)
+        public Integer age;
+
+        public Resident() {
+        }
+
+        Resident(String city, int age) {
+            this.city = city;
+            this.age = age;
+        }
+    }
+
+
+    private MemoryStore store;
+
+    @Before
+    public void connect() {
+        store = new MemoryStore();
+        Pool.connectLocal(store);
+    }
+
+    @After
+    public void disconnect() {
+        Pool.release();
+    }
+
+
+    @Test
+    public void savesAndLoads() {
+
+        Person ana = new Person("ana", "lisbon", 31);
+        ana.tags = Arrays.asList("a", "b", "c");
+        ana.friend = new Person("rui", "porto", 40);
+        Mapper mapper = new Mapper(ana);
+        mapper.save();
+
+        Person loaded = new Person();
+        new Mapper(loaded, mapper.getId()).load();
+
+        assertEquals("ana", loaded.name);
+        assertEquals("lisbon", loaded.city);
+        assertEquals(Integer.valueOf(31), loaded.age);
+        assertEquals(Arrays.asList("a", "b", "c"), loaded.tags);
+        assertNotNull(loaded.friend);
+        assertEquals("rui", loaded.friend.name);
+    }
+
+    @Test
+    public void savesOnlyWhatChanged() {
+
+        Person ana = new Person("ana", "lisbon", 31);
+        Mapper mapper = new Mapper(ana);
+        mapper.save();
+
+        assertEquals(0, mapper.save().getWritten());
+        ana.city = "porto";
+        assertEquals(1, mapper.save().getWritten());
+        assertEquals(Collections.singletonList("ana"), names(new SearchCriteria(Person.class).equalTo("city", "porto")));
+        assertTrue(names(new SearchCriteria(Person.class).equalTo("city", "lisbon")).isEmpty());
+    }
+
+    @Test
+    public void finds() {
+
+        Mapper.saveAll(Arrays.asList(
+                new Person("ana", "lisbon", 31),
+                new Person("andre", "lisbon", 25),
+                new Person("bruno", "lisbon", 31),
+                new Person("carla", "porto", 31)));
+
+        assertEquals(Arrays.asList("ana", "andre", "bruno"),
+                names(new SearchCriteria(Person.class).equalTo("city", "lisbon")));
+        assertEquals(Arrays.asList("ana", "andre"),
+                names(new SearchCriteria(Person.class).startsWith("name", "an")));
+        assertEquals(Arrays.asList("ana", "bruno"),
+                names(new SearchCriteria(Person.class).equalTo("city", "lisbon").equalTo("age", 31)));
+    }
+
+    @Test
+    public void pages() {
+
+        List<Person> people = new ArrayList<>();
+        for (int i = 0; i < 25; i++)
+            people.add(new Person("p" + (char) ('a' + i), "lisbon", 20));
+        Mapper.saveAll(people);
+
+        List<String> names = new ArrayList<>();
+        String cursor = null;
+        do {
+            Mapper.Finder<Person> finder = finder(new SearchCriteria(Person.class).equalTo("city", "lisbon"))
+                    .sortBy("name").limit(10);
+            if (cursor != null)
+                finder.after(cursor);
+            Mapper.Finder.Page<Person> page = finder.page();
+            for (Person person : page.getItems())
+                names.add(person.name);
+            cursor = page.getCursor();
+        } while (cursor != null);
+
+        assertEquals(25, names.size());
+        assertEquals("pa", names.get(0));
+        assertEquals("py", names.get(24));
+    }
+
+    @Test
+    public void deletes() {
+
+        Person ana = new Person("ana", "lisbon", 31);
+        ana.tags = Arrays.asList("a", "b");
+        ana.friend = new Person("rui", "porto", 40);
+        Mapper mapper = new Mapper(ana);
+        mapper.save();
+        String id = mapper.getId();
+
+        Person loaded = new Person();
+        Mapper loader = new Mapper(loaded, id);
+        loader.load();
+        loader.delete();
+
+        Person gone = new Person();
+        new Mapper(gone, id).load();
+        assertNull(gone.name);
+        assertTrue(names(new SearchCriteria(Person.class).equalTo("city", "lisbon")).isEmpty());
+        // only the id counters of objects and of their lists are left
+        assertEquals(2, store.size());
+    }
+
+    @Test
+    public void deletesWithoutLoading() {
+
+        Mapper mapper = new Mapper(new Person("ana", "lisbon", 31));
+        mapper.save();
+
+        new Mapper(new Person(), mapper.getId()).delete();
+
+        assertTrue(names(new SearchCriteria(Person.class).equalTo("city", "lisbon")).isEmpty());
+        assertTrue(names(new SearchCriteria(Person.class).startsWith("name", "a")).isEmpty());
+        assertEquals(1, store.size());
+    }
+
+    @Test
+    public void rangesByRank() {
+
+        for (int i = 0; i < 10; i++)
+            store.zadd("z", i, "m" + i);
+
+        assertEquals(Arrays.asList("m2", "m3", "m4"), store.zrange("z", 2, 4));
+        assertEquals(Arrays.asList("m8", "m9"), store.zrange("z", -2, -1));
+        assertEquals(Collections.singletonList("m9"), store.zrange("z", 9, 100));
+        assertTrue(store.zrange("z", 10, 20).isEmpty());
+        assertTrue(store.zrange("missing", 0, -1).isEmpty());
+    }
+
+    @Test
+    public void scansSetsInMemberOrder() {
+
+        store.sadd("s", "c", "a", "d", "b");
+        store.srem("s", "d");
+
+        assertEquals(3, store.scard("s"));
+        assertEquals(Arrays.asList("a", "b"), store.sscan("s", null, 2));
+        assertEquals(Collections.singletonList("c"), store.sscan("s", "b", 2));
+        assertTrue(store.sscan("s", "c", 2).isEmpty());
+        store.srem("s", "a", "b", "c");
+        assertEquals(0, store.size());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void refusesEmptySaveBatches() {
+        Mapper.saveAll(Collections.singletonList(new Person("ana", "lisbon", 31)), 0);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void refusesEmptyLoadBatches() {
+        Mapper.loadAll(Collections.singletonList("Person:1"), Person::new, 0);
+    }
+
+    @Test
+    public void buildsComposites() {
+
+        Mapper.saveAll(Arrays.asList(new Resident("lisbon", 31), new Resident("lisbon", 40), new Resident("porto", 31)));
+        SearchCriteria criteria = new SearchCriteria(Resident.class).equalTo("city", "lisbon").equalTo("age", 31);
+        try {
+            residents(criteria);
+            fail("planned through a composite index that is not built");
+        } catch (IllegalStateException expected) {
+        }
+
+        assertEquals(3, Index.buildComposites(Resident.class));
+        assertEquals(1, residents(criteria).size());
+        new Mapper(new Resident("lisbon", 31)).save();
+        assertEquals(2, residents(criteria).size());
+    }
+
+
+    private static Mapper.Finder<Person> finder(SearchCriteria criteria) {
+        return new Mapper.Finder<Person>(criteria) {
+            @Override
+            public Person newInstance() {
+                return new Person();
+            }
+        };
+    }
+
+    private static List<String> names(SearchCriteria criteria) {
+        List<String> names = new ArrayList<>();
+        for (Person person : finder(criteria).find())
+            names.add(person.name);
+        Collections.sort(names);
+        return names;
+    }
+
+    private static List<Resident> residents(SearchCriteria criteria) {
+        return new Mapper.Finder<Resident>(criteria) {
+            @Override
+            public Resident newInstance() {
+                return new Resident();
+            }
+        }.find();
+    }
+}
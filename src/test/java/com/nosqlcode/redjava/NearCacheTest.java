@@ -0,0 +1,140 @@
+package com.nosqlcode.redjava;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+/**
+ * Entries of the near cache, and the invalidation done by writes.
+ */
+
+public class NearCacheTest {
+
+
+    public static class Note {
+
+        @RedStr
+        public String text;
+
+        public Note() {
+        }
+
+        Note(String text) {
+            this.text = text;
+        }
+    }
+
+
+    private MemoryStore store;
+
+    @Before
+    public void connect() {
+        store = new MemoryStore();
+        Pool.connectLocal(store);
+    }
+
+    @After
+    public void disconnect() {
+        Mapper.setNearCache(null);
+        Pool.release();
+    }
+
+
+    @Test
+    public void keepsEntriesUntilInvalidated() {
+
+        NearCache cache = new NearCache(10, 0, TimeUnit.SECONDS);
+        Object[] values = {"a"};
+        cache.put("Note:1", values, cache.generation("Note:1"));
+        assertSame(values, cache.get("Note:1"));
+        assertNull(cache.get("Note:2"));
+
+        cache.invalidate("Note:1");
+        assertNull(cache.get("Note:1"));
+        assertEquals(1, cache.getHits());
+        assertEquals(2, cache.getMisses());
+        assertEquals(1, cache.getInvalidations());
+    }
+
+    @Test
+    public void dropsLoadsRacingAnInvalidation() {
+
+        NearCache cache = new NearCache(10, 0, TimeUnit.SECONDS);
+        long generation = cache.generation("Note:1");
+        // a write lands between the read from redis and the put
+        cache.invalidate("Note:1");
+        cache.put("Note:1", new Object[]{"old"}, generation);
+        assertNull(cache.get("Note:1"));
+
+        cache.put("Note:1", new Object[]{"new"}, cache.generation("Note:1"));
+        assertNotNull(cache.get("Note:1"));
+    }
+
+    @Test
+    public void evictsTheLeastRecentlyUsed() {
+
+        NearCache cache = new NearCache(2, 0, TimeUnit.SECONDS);
+        cache.put("Note:1", new Object[0], cache.generation("Note:1"));
+        cache.put("Note:2", new Object[0], cache.generation("Note:2"));
+        cache.get("Note:1");
+        cache.put("Note:3", new Object[0], cache.generation("Note:3"));
+
+        assertEquals(2, cache.size());
+        assertEquals(1, cache.getEvictions());
+        assertNotNull(cache.get("Note:1"));
+        assertNull(cache.get("Note:2"));
+    }
+
+    @Test
+    public void expiresOldEntries() throws InterruptedException {
+
+        NearCache cache = new NearCache(10, 20, TimeUnit.MILLISECONDS);
+        cache.put("Note:1", new Object[0], cache.generation("Note:1"));
+        assertNotNull(cache.get("Note:1"));
+        Thread.sleep(50);
+        assertNull(cache.get("Note:1"));
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void savesAndDeletesInvalidate() {
+
+        NearCache cache = new NearCache(10, 0, TimeUnit.SECONDS);
+        Mapper.setNearCache(cache);
+
+        Note note = new Note("first");
+        Mapper mapper = new Mapper(note);
+        mapper.save();
+        String id = mapper.getId();
+
+        assertEquals("first", load(id).text);
+        assertEquals(1, cache.size());
+
+        // writes made without redjava go unnoticed
+        store.hset(id, "text", Codecs.of(String.class).encode("behind"));
+        assertEquals("first", load(id).text);
+
+        note.text = "second";
+        mapper.save();
+        assertEquals(0, cache.size());
+        assertEquals("second", load(id).text);
+
+        mapper.delete();
+        assertEquals(0, cache.size());
+        assertNull(load(id).text);
+    }
+
+
+    private static Note load(String id) {
+        Note note = new Note();
+        new Mapper(note, id).load();
+        return note;
+    }
+}
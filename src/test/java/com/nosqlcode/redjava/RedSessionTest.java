@@ -0,0 +1,149 @@
+package com.nosqlcode.redjava;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Identity map and unit of work of a session.
+ */
+
+public class RedSessionTest {
+
+
+    public static class Person {
+
+        @RedStr
+        public String name;
+
+        @RedObj
+        public Person friend;
+
+        public Person() {
+        }
+
+        Person(String name) {
+            this.name = name;
+        }
+    }
+
+
+    private MemoryStore store;
+
+    @Before
+    public void connect() {
+        store = new MemoryStore();
+        Pool.connectLocal(store);
+    }
+
+    @After
+    public void disconnect() {
+        Pool.release();
+    }
+
+
+    @Test
+    public void loadsEveryIdOnce() {
+
+        String id = Mapper.saveAll(Arrays.asList(new Person("ana"))).get(0);
+
+        try (RedSession session = new RedSession()) {
+            Person first = session.load(id, Person::new);
+            Person again = session.load(id, Person::new);
+            assertSame(first, again);
+            assertSame(first, session.loadAll(Arrays.asList(id, id), Person::new).get(1));
+            assertTrue(session.contains(first));
+            assertFalse(session.contains(new Person("ana")));
+        }
+    }
+
+    @Test
+    public void referencesShareTheLoadedInstance() {
+
+        Person ana = new Person("ana");
+        ana.friend = new Person("carla");
+        Mapper first = new Mapper(ana);
+        first.save();
+        Mapper second = new Mapper(new Person("bruno"));
+        second.save();
+        // both are friends with the same stored object
+        store.hset(second.getId(), "friend", store.hget(first.getId(), "friend"));
+
+        try (RedSession session = new RedSession()) {
+            Person loaded = session.load(first.getId(), Person::new);
+            assertEquals("carla", loaded.friend.name);
+            assertSame(loaded.friend, session.load(second.getId(), Person::new).friend);
+        }
+    }
+
+    @Test
+    public void writesOnlyOnCommit() {
+
+        String id = Mapper.saveAll(Arrays.asList(new Person("ana"))).get(0);
+
+        try (RedSession session = new RedSession()) {
+            session.save(new Person("bruno"));
+            Person ana = session.load(id, Person::new);
+            ana.name = "anabela";
+            session.save(ana);
+            int size = store.size();
+            assertEquals("ana", load(id).name);
+
+            session.commit();
+            assertEquals("anabela", load(id).name);
+            assertTrue(store.size() > size);
+
+            session.delete(ana);
+            session.clear();
+            session.commit();
+            assertEquals("anabela", load(id).name);
+
+            session.delete(ana);
+            session.commit();
+            assertNull(load(id).name);
+            assertFalse(session.contains(ana));
+        }
+    }
+
+    @Test
+    public void commitsTransactions() {
+
+        List<String> ids = Mapper.saveAll(Arrays.asList(new Person("ana"), new Person("bruno")));
+
+        try (RedSession session = new RedSession(true)) {
+            Person ana = session.load(ids.get(0), Person::new);
+            Person bruno = session.load(ids.get(1), Person::new);
+            ana.name = "anabela";
+            session.save(ana);
+            session.delete(bruno);
+            session.commit();
+        }
+        assertEquals("anabela", load(ids.get(0)).name);
+        assertNull(load(ids.get(1)).name);
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void refusesWorkOnceClosed() {
+
+        RedSession session = new RedSession();
+        session.close();
+        session.close();
+        session.save(new Person("ana"));
+    }
+
+
+    private static Person load(String id) {
+        Person person = new Person();
+        new Mapper(person, id).load();
+        return person;
+    }
+}
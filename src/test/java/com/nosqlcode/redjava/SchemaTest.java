@@ -0,0 +1,62 @@
+package com.nosqlcode.redjava;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Keys precomputed by the schema, every index belongs to one model.
+ */
+
+public class SchemaTest {
+
+
+    public static class Person {
+
+        @RedStr(index = Index.Type.LEX)
+        public String name;
+
+        @RedStr(index = Index.Type.SET)
+        public String city;
+
+        @RedInt
+        public Integer age;
+
+        @RedObj
+        public Person friend;
+    }
+
+    // same field names and types as Person
+    public static class Pet {
+
+        @RedStr(index = Index.Type.LEX)
+        public String name;
+
+        @RedInt
+        public Integer age;
+    }
+
+
+    @Test
+    public void indexKeysNameTheModel() {
+
+        Schema person = Schema.of(Person.class);
+        assertEquals("lex:Person:name", person.getProperty("name").indexKey);
+        assertEquals("index:Person:city", person.getProperty("city").indexKey);
+        assertEquals("index:Person:age", person.getProperty("age").indexKey);
+        assertEquals("index:Person:friend", person.getProperty("friend").indexKey);
+        assertEquals("index:Person:city:lisbon", Index.setKey(person.getProperty("city").indexKey, "lisbon"));
+    }
+
+    @Test
+    public void modelsDoNotShareIndexes() {
+
+        assertEquals("lex:Pet:name", Schema.of(Pet.class).getProperty("name").indexKey);
+        assertEquals("index:Pet:age", Schema.of(Pet.class).getProperty("age").indexKey);
+    }
+
+    @Test
+    public void keepsTheFieldType() {
+        assertEquals(Person.class, Schema.of(Person.class).getProperty("friend").fieldType);
+    }
+}
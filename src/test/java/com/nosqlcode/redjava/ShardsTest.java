@@ -0,0 +1,76 @@
+package com.nosqlcode.redjava;
+
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Routing of keys over the hash ring.
+ */
+
+public class ShardsTest {
+
+
+    private static final List<String> NODES = Arrays.asList("localhost:6380", "localhost:6381", "localhost:6382");
+
+
+    @Test
+    public void routesTheSameKeyToTheSameNode() {
+
+        Shards shards = new Shards(NODES);
+        Shards again = new Shards(NODES);
+        assertEquals(3, shards.size());
+        for (int i = 0; i < 1000; i++) {
+            String key = "Person:" + i;
+            assertEquals(shards.of(key), again.of(key));
+            assertEquals(shards.of(key), shards.of(key.getBytes(StandardCharsets.UTF_8)));
+        }
+    }
+
+    @Test
+    public void spreadsKeysOverAllNodes() {
+
+        Shards shards = new Shards(NODES);
+        int[] keys = new int[NODES.size()];
+        for (int i = 0; i < 30000; i++)
+            keys[shards.of("Person:" + i)]++;
+        for (int node = 0; node < keys.length; node++)
+            assertTrue("node " + node + " owns " + keys[node], keys[node] > 5000);
+    }
+
+    @Test
+    public void addingANodeOnlyMovesItsKeys() {
+
+        Shards before = new Shards(NODES);
+        Shards after = new Shards(Arrays.asList("localhost:6380", "localhost:6381", "localhost:6382", "localhost:6383"));
+        int moved = 0;
+        for (int i = 0; i < 10000; i++) {
+            String key = "Person:" + i;
+            if (before.of(key) != after.of(key)) {
+                assertEquals(3, after.of(key));
+                moved++;
+            }
+        }
+        assertTrue("moved " + moved, moved > 1000 && moved < 4000);
+    }
+
+    @Test
+    public void hashTagsPlaceKeysByTheTag() {
+
+        assertEquals("Person:7", Shards.tag("Person:7:friends:{Person:7}"));
+        assertEquals("Person:7", Shards.tag("Person:7"));
+        assertEquals("a{}b", Shards.tag("a{}b"));
+        assertEquals("Person:7:friends:{Person:7}", Shards.colocate("Person:7:friends", "Person:7"));
+
+        Shards shards = new Shards(NODES);
+        for (int i = 0; i < 1000; i++) {
+            String id = "Person:" + i;
+            assertEquals(shards.of(id), shards.of(Shards.colocate(id + ":friends", id)));
+        }
+    }
+}